@@ -22,8 +22,6 @@ import java.util.Random;
  */
 public class DemoWorldState extends AbstractWorldState {
 
-    private LayeredNoise layeredNoise;
-
     public DemoWorldState(WorldSettings worldSettings) {
         super(worldSettings);
 
@@ -32,16 +30,22 @@ public class DemoWorldState extends AbstractWorldState {
 
     private void createWorldNoise() {
 
+        // LayeredNoise is not thread-safe, so each thread builds its own from the seed of the world.
+        setWorldNoiseFactory(seed -> new LayeredNoiseEvaluator(createLayeredNoise(seed)));
+    }
+
+    private static LayeredNoise createLayeredNoise(long seed) {
+
         // Create layers of noise decreasing in size.
         // We start with huge continents and work our way down to small details.
 
-        layeredNoise = new LayeredNoise();
+        LayeredNoise layeredNoise = new LayeredNoise();
 
         layeredNoise.setHardFloor(true);
         layeredNoise.setHardFloorHeight(20);
         layeredNoise.setHardFloorStrength(0.6f);
 
-        Random random = new Random(getWorldSettings().getSeed());
+        Random random = new Random(seed);
 
         NoiseLayer continents = new NoiseLayer("Continents");
         continents.setSeed(random.nextInt());
@@ -79,18 +83,21 @@ public class DemoWorldState extends AbstractWorldState {
 
         layeredNoise.addLayer(details);
 
-        NoiseEvaluator noiseEvaluator = new NoiseEvaluator() {
-            @Override
-            public float evaluate(Vector2f loc) {
-                return layeredNoise.evaluate(loc);
-            }
-        };
-
-        setWorldNoise(noiseEvaluator);
+        return layeredNoise;
     }
 
+    /**
+     * Gets the layered noise of the calling thread.
+     * @return the layered noise of the calling thread, or null if the world noise has been replaced with noise that
+     * isn't layered.
+     */
     public LayeredNoise getLayeredNoise() {
-        return layeredNoise;
+
+        NoiseEvaluator worldNoise = getWorldNoise();
+
+        return worldNoise instanceof LayeredNoiseEvaluator
+                ? ((LayeredNoiseEvaluator) worldNoise).getLayeredNoise()
+                : null;
     }
 
     @Override
@@ -164,7 +171,28 @@ public class DemoWorldState extends AbstractWorldState {
         gridSettings.setCellSize(CellSize.Size_64); // the size of our grid cells.
         gridSettings.setViewDistance(5);
 
-        return new TerrainGrid(this, gridSettings);
+        TerrainGrid terrainGrid = new TerrainGrid(this, gridSettings);
+        terrainGrid.setLodEnabled(true); // build distant cells with less vertices.
+
+        return terrainGrid;
+    }
+
+    private static final class LayeredNoiseEvaluator extends NoiseEvaluator {
+
+        private final LayeredNoise layeredNoise;
+
+        private LayeredNoiseEvaluator(LayeredNoise layeredNoise) {
+            this.layeredNoise = layeredNoise;
+        }
+
+        LayeredNoise getLayeredNoise() {
+            return layeredNoise;
+        }
+
+        @Override
+        public float evaluate(Vector2f loc) {
+            return layeredNoise.evaluate(loc);
+        }
     }
 
 }
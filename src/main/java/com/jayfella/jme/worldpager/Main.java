@@ -61,6 +61,7 @@ public class Main extends SimpleApplication {
         super.simpleUpdate(tpf);
 
         world.setFollower(cam.getLocation());
+        world.setFollowerDirection(cam.getDirection());
     }
 
 }
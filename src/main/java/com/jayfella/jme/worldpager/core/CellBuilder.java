@@ -0,0 +1,16 @@
+package com.jayfella.jme.worldpager.core;
+
+/**
+ * Builds the payload of a cell. Called from a worker thread.
+ * @param <T> the type of payload.
+ */
+public interface CellBuilder<T> {
+
+    /**
+     * Builds the payload of the given cell in a multi-threaded manner.
+     * @param gridPos the grid position of the requested cell.
+     * @return the payload of the cell.
+     */
+    T buildCell(GridPos2i gridPos);
+
+}
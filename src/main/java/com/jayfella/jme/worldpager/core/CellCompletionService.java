@@ -0,0 +1,66 @@
+package com.jayfella.jme.worldpager.core;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Submits cell workers to an executor and hands finished workers back through a lock-free queue.
+ * The consumer only ever sees workers that have finished, so the cost of draining the queue depends on how much
+ * work has completed and not how much is still in flight.
+ *
+ * Workers that are cancelled before they run are never queued. Workers that fail are queued with their failure.
+ * Workers that were abandoned after they started are queued as well, and should have their results destroyed.
+ *
+ * @param <T> the type of payload the workers build.
+ */
+public class CellCompletionService<T> {
+
+    private final Executor executor;
+    private final Queue<ThreadedWorker<T>> completed = new ConcurrentLinkedQueue<>();
+
+    public CellCompletionService(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Future<ThreadedWorker<T>> submit(ThreadedWorker<T> worker) {
+
+        FutureTask<ThreadedWorker<T>> task = new FutureTask<ThreadedWorker<T>>(worker) {
+
+            @Override
+            protected void done() {
+
+                if (isCancelled()) {
+                    return;
+                }
+
+                try {
+                    get();
+                } catch (ExecutionException ex) {
+                    worker.setFailure(ex.getCause());
+                } catch (InterruptedException ex) {
+                    // we are already done, so this won't happen.
+                    Thread.currentThread().interrupt();
+                }
+
+                completed.offer(worker);
+            }
+
+        };
+
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Retrieves and removes the next finished worker.
+     * @return the next finished worker, or null if no workers have finished.
+     */
+    public ThreadedWorker<T> poll() {
+        return completed.poll();
+    }
+
+}
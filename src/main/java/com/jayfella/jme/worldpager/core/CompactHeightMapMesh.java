@@ -0,0 +1,243 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.bounding.BoundingBox;
+import com.jme3.bounding.BoundingVolume;
+import com.jme3.collision.Collidable;
+import com.jme3.collision.CollisionResults;
+import com.jme3.math.Matrix4f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Generates a mesh from a heightmap that only stores the height and normal of each vertex, four bytes in total.
+ *
+ * The position stream holds a single unsigned short per vertex: the height in steps above the base height of the
+ * mesh. The normal stream holds the octahedral projection of the normal in two signed, normalized bytes. The x and z
+ * location of each vertex is taken from a coordinate stream that is shared by every mesh of the same size, and the
+ * triangle indices are shared in the same way.
+ *
+ * The vertices must be decoded by the shader, so the mesh must be rendered with the CompactTrilinearLighting material,
+ * with its HeightStep parameter set to the height step of the mesh. The base height is not part of the mesh, so the
+ * geometry must be moved up by {@link #getBaseHeight()}. A compact mesh can't be picked with a ray.
+ *
+ * Like a {@link HeightMapMesh}, a compact mesh can be built at a reduced level of detail with a skirt.
+ *
+ * Call {@link #release()} once the mesh is no longer used so the buffers can be used by the next mesh.
+ */
+public class CompactHeightMapMesh extends Mesh {
+
+    /**
+     * The largest height a compact mesh can hold above its base height, in steps.
+     */
+    public static final int MAX_STEPS = 0xFFFF;
+
+    private static final MeshBufferPool bufferPool = new MeshBufferPool();
+
+    private final int hmapDim;
+    private final float[] heightmap;
+    private final float heightStep;
+    private final float stepsPerUnit;
+    private final int baseStep;
+    private final int lodLevel;
+    private final int stride;
+
+    public CompactHeightMapMesh(float[] heightmap, float heightStep) {
+        this(heightmap, heightStep, null);
+    }
+
+    /**
+     * Generates a compact mesh from a heightmap, splitting the work into blocks of rows if the executor allows it.
+     *
+     * The height step should be a power of two, so the base height plus the quantized height is exact and the edges
+     * of neighbouring cells line up. Heights more than {@link #MAX_STEPS} steps above the lowest height of the cell
+     * are clamped.
+     *
+     * @param heightmap  the heightmap, including a one sample border.
+     * @param heightStep the height of one quantization step in world units.
+     * @param executor   the executor used to split the work, or null to build the mesh on this thread.
+     */
+    public CompactHeightMapMesh(float[] heightmap, float heightStep, IntraCellExecutor executor) {
+        this(heightmap, heightStep, 0, 0, executor);
+    }
+
+    /**
+     * Generates a compact mesh from a heightmap at the given level of detail.
+     * @param heightmap  the heightmap, including a one sample border.
+     * @param heightStep the height of one quantization step in world units.
+     * @param lodLevel   the level of detail. Each level doubles the distance between two vertices.
+     * @param skirtDepth how far the skirt hangs down below the edges of the mesh, or zero for no skirt.
+     * @param executor   the executor used to split the work, or null to build the mesh on this thread.
+     * @see HeightMapMesh#getEdgeError(float[], int)
+     */
+    public CompactHeightMapMesh(float[] heightmap, float heightStep, int lodLevel, float skirtDepth,
+                                IntraCellExecutor executor) {
+
+        super();
+
+        this.heightmap = heightmap;
+        this.hmapDim = (int) Math.sqrt(heightmap.length);
+        this.heightStep = heightStep;
+        this.lodLevel = lodLevel;
+        this.stride = 1 << lodLevel;
+
+        int meshDim = ((hmapDim - 3) >> lodLevel) + 1;
+        boolean skirted = skirtDepth > 0;
+        int perimeter = skirted ? SharedIndexBuffers.perimeterLength(meshDim) : 0;
+        int vertCount = meshDim * meshDim + perimeter;
+
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+
+        for (int z = 1; z < hmapDim - 1; z += stride) {
+            for (int x = 1; x < hmapDim - 1; x += stride) {
+                float height = getHeightMapValue(x, z);
+
+                if (height < min) {
+                    min = height;
+                }
+
+                if (height > max) {
+                    max = height;
+                }
+            }
+        }
+
+        this.stepsPerUnit = 1 / heightStep;
+
+        // the skirt hangs below the lowest point, so the base is moved down to make room for it.
+        int skirtSteps = skirted ? (int) Math.ceil(skirtDepth * stepsPerUnit) : 0;
+
+        this.baseStep = quantize(min * stepsPerUnit) - skirtSteps;
+        int topStep = Math.min(quantize(max * stepsPerUnit) - baseStep, MAX_STEPS);
+
+        ShortBuffer heights = bufferPool.takeShortBuffer(vertCount);
+        // both bytes of a normal are written at once, x first.
+        ByteBuffer normals = bufferPool.takeByteBuffer(vertCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+
+        // each block of rows only writes to its own part of the buffers, using absolute puts.
+        IntraCellExecutor.forEachRowBlock(executor, meshDim, (from, to) ->
+                buildRows(heights, normals, meshDim, from, to));
+
+        // a copy of each edge vertex, moved down.
+        for (int i = 0; i < perimeter; i++) {
+            int vert = SharedIndexBuffers.perimeterVertex(meshDim, i);
+            heights.put(meshDim * meshDim + i, (short) ((heights.get(vert) & MAX_STEPS) - skirtSteps));
+            normals.putShort((meshDim * meshDim + i) * 2, normals.getShort(vert * 2));
+        }
+
+        VertexBuffer positionBuffer = new VertexBuffer(VertexBuffer.Type.Position);
+        positionBuffer.setupData(VertexBuffer.Usage.Static, 1, VertexBuffer.Format.UnsignedShort, heights);
+        setBuffer(positionBuffer);
+
+        VertexBuffer normalBuffer = new VertexBuffer(VertexBuffer.Type.Normal);
+        normalBuffer.setupData(VertexBuffer.Usage.Static, 2, VertexBuffer.Format.Byte, normals);
+        normalBuffer.setNormalized(true);
+        setBuffer(normalBuffer);
+
+        // every mesh of this size has the same grid coordinates and triangles.
+        setBuffer(SharedGridCoordinates.get(meshDim, stride, skirted));
+        setBuffer(SharedIndexBuffers.get(meshDim, skirted));
+
+        // the position stream isn't made of floats, so the bound is calculated from the heights.
+        int extent = (meshDim - 1) * stride;
+        setBound(new BoundingBox(new Vector3f(0, 0, 0), new Vector3f(extent, topStep * heightStep, extent)));
+    }
+
+    private void buildRows(ShortBuffer heights, ByteBuffer normals, int meshDim, int fromRow, int toRow) {
+
+        for (int row = fromRow; row < toRow; row++) {
+            for (int col = 0; col < meshDim; col++) {
+
+                int vert = (row * meshDim) + col;
+
+                int x = col * stride;
+                int z = row * stride;
+
+                int step = quantize(getHeightMapValue(x + 1, z + 1) * stepsPerUnit) - baseStep;
+                heights.put(vert, (short) Math.min(step, MAX_STEPS));
+
+                // the same normal as the heightmap mesh, (nx, 2, nz) before it is normalized.
+                // the normal always points up, so its octahedral projection never needs to be folded.
+                float nx = getHeightMapValue(x, z + 1) - getHeightMapValue(x + 2, z + 1);
+                float nz = getHeightMapValue(x + 1, z) - getHeightMapValue(x + 1, z + 2);
+                float scale = 127 / (Math.abs(nx) + 2 + Math.abs(nz));
+
+                normals.putShort(vert * 2, (short) (packNormal(nx * scale) | packNormal(nz * scale) << 8));
+            }
+        }
+    }
+
+    /**
+     * Gets the height that the quantized heights of this mesh start from. The geometry of the mesh must be moved up
+     * by this amount.
+     * @return the base height of the mesh in world units.
+     */
+    public float getBaseHeight() {
+        return baseStep * heightStep;
+    }
+
+    public int getLodLevel() {
+        return lodLevel;
+    }
+
+    public float getHeightStep() {
+        return heightStep;
+    }
+
+    /**
+     * Does nothing. The bound is calculated when the mesh is generated, and can't be calculated from the position
+     * stream.
+     */
+    @Override
+    public void updateBound() {
+    }
+
+    /**
+     * Always returns zero. A compact mesh has no float positions to build the collision data from.
+     * Use the heightfield of the world or a collision grid instead.
+     */
+    @Override
+    public int collideWith(Collidable other, Matrix4f worldMatrix, BoundingVolume worldBound, CollisionResults results) {
+        return 0;
+    }
+
+    /**
+     * Returns the buffers of this mesh to the pool. The mesh must not be used or rendered afterwards.
+     * The shared coordinate and index buffers are left alone.
+     */
+    public void release() {
+
+        for (VertexBuffer vertexBuffer : getBufferList()) {
+
+            if (vertexBuffer.getData() != null
+                    && !SharedIndexBuffers.isShared(vertexBuffer)
+                    && !SharedGridCoordinates.isShared(vertexBuffer)) {
+
+                bufferPool.release(vertexBuffer.getData());
+                vertexBuffer.updateData(null);
+            }
+        }
+    }
+
+    // rounds to the nearest integer, the same way for every cell.
+    private static int quantize(float value) {
+        float shifted = value + 0.5f;
+        int truncated = (int) shifted;
+        return shifted < truncated ? truncated - 1 : truncated;
+    }
+
+    // rounds a normal component between -127 and 127 to a signed byte.
+    private static int packNormal(float value) {
+        return ((int) (value + 128.5f) - 128) & 0xFF;
+    }
+
+    private float getHeightMapValue(int x, int z) {
+        return heightmap[(z * hmapDim) + x];
+    }
+
+}
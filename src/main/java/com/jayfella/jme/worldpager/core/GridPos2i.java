@@ -37,6 +37,34 @@ public class GridPos2i implements Cloneable {
         return new GridPos2i((int)worldLocation.x >> bitshift, (int)worldLocation.z >> bitshift, bitshift);
     }
 
+    /**
+     * Packs a grid position into a single long, suitable as a key in a primitive collection.
+     * The x plane occupies the upper 32 bits and the z plane the lower 32 bits.
+     * @param x the x position in grid cells.
+     * @param z the z position in grid cells.
+     * @return the packed position.
+     */
+    public static long toKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static int keyToX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int keyToZ(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Packs this grid position into a single long. The bitshift is not included.
+     * @return the packed position.
+     * @see #toKey(int, int)
+     */
+    public long toKey() {
+        return toKey(this.x, this.z);
+    }
+
     public int getBitshift() {
         return bitshift;
     }
@@ -11,6 +11,12 @@ public class GridSettings {
     private CellSize cellSize = CellSize.Size_16;
     private int additionsPerFrame = 1;
     private int removalsPerFrame = 1;
+    private float directionalPriority = 1.0f;
+    private int cacheSize = 0;
+    private long cacheMemory = 0;
+    private float prefetchTime = 0;
+    private int batchSize = 0;
+    private int batchDistance = 8;
 
     /**
      * Gets how many grid cells are drawn from the center in each cardinal direction.
@@ -75,6 +81,7 @@ public class GridSettings {
      * Determines how many cells will be added to the scene per frame.
      * Adding too many cells per-frame may cause "stutter" because there is so much data being pushed to the
      * graphics card in such a short amount of time.
+     * Ignored if the grid has been given a per-frame time allowance.
      * @param additionsPerFrame the amount of cells to add per frame.
      */
     public void setAdditionsPerFrame(int additionsPerFrame) {
@@ -93,12 +100,121 @@ public class GridSettings {
      * Determines how many cells will be removed from the scene per frame.
      * Removing too many cells per-frame may cause "stutter" because there is too much garbage being collected in such
      * a short amount of time.
+     * Ignored if the grid has been given a per-frame time allowance.
      * @param removalsPerFrame the amount of cells to remove per-frame.
      */
     public void setRemovalsPerFrame(int removalsPerFrame) {
         this.removalsPerFrame = removalsPerFrame;
     }
 
+    /**
+     * How much cells behind the follower are penalized when deciding which cell to load next.
+     * @return the directional priority weight.
+     */
+    public float getDirectionalPriority() {
+        return directionalPriority;
+    }
+
+    /**
+     * Determines how much cells behind the follower are penalized when deciding which cell to load next.
+     * Cells are always loaded nearest first. A weight of 1 means a cell directly behind the follower is treated as
+     * if it were twice as far away as a cell directly in front. A weight of 0 ignores the view direction entirely.
+     * @param directionalPriority the directional priority weight.
+     */
+    public void setDirectionalPriority(float directionalPriority) {
+        this.directionalPriority = directionalPriority;
+    }
+
+    /**
+     * Gets how many cells that have left the view are kept in memory in case they come back into view.
+     * @return the maximum amount of cached cells.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Determines how many cells that have left the view are kept in memory in case they come back into view.
+     * A cached cell that comes back into view only needs to be attached instead of being generated again.
+     * When the cache is full, the least recently cached cell is destroyed.
+     * @param cacheSize the maximum amount of cached cells, or zero to disable the cache.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    /**
+     * Gets the maximum amount of memory the cached cells may use.
+     * @return the maximum amount of bytes used by cached cells, or zero if there is no limit.
+     */
+    public long getCacheMemory() {
+        return cacheMemory;
+    }
+
+    /**
+     * Determines the maximum amount of memory the cached cells may use. This is estimated from the vertex buffers of
+     * each cell. The cache size must still be set for cells to be cached.
+     * @param cacheMemory the maximum amount of bytes used by cached cells, or zero for no limit.
+     */
+    public void setCacheMemory(long cacheMemory) {
+        this.cacheMemory = cacheMemory;
+    }
+
+    /**
+     * Gets how many seconds ahead of a moving follower cells are loaded.
+     * @return the prefetch time in seconds.
+     */
+    public float getPrefetchTime() {
+        return prefetchTime;
+    }
+
+    /**
+     * Determines how many seconds ahead of a moving follower cells are loaded.
+     * The region of loaded cells is moved in the direction of travel by the distance the follower will cover in this
+     * time, up to half of the view distance. The amount of loaded cells stays the same, so cells behind the follower
+     * are unloaded sooner.
+     * @param prefetchTime the prefetch time in seconds, or zero to always keep the follower in the center.
+     */
+    public void setPrefetchTime(float prefetchTime) {
+        this.prefetchTime = prefetchTime;
+    }
+
+    /**
+     * Gets how many cells along each side of a block are merged into a single batch.
+     * @return the amount of cells along each side of a batch, or zero if cells are never batched.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Determines how many cells along each side of a block are merged into a single batch once the block is far
+     * enough from the followers. A batch is drawn with one geometry per material instead of one per cell, which
+     * cuts the amount of draw calls and scene nodes. Only cells with float positions can be batched.
+     * @param batchSize the amount of cells along each side of a batch, or zero to never batch cells.
+     * @see #setBatchDistance(int)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets how far a block of cells must be from the followers before it is batched.
+     * @return the batch distance in cells.
+     */
+    public int getBatchDistance() {
+        return batchDistance;
+    }
+
+    /**
+     * Determines how far every cell of a block must be from the followers before the block is batched. A batch is
+     * split back into its cells as soon as a follower comes nearer.
+     * @param batchDistance the batch distance in cells.
+     */
+    public void setBatchDistance(int batchDistance) {
+        this.batchDistance = batchDistance;
+    }
+
     public GridSettingsListener getListener() {
         return listener;
     }
@@ -1,156 +1,207 @@
 package com.jayfella.jme.worldpager.core;
 
-import com.jme3.math.Vector2f;
-import com.jme3.math.Vector3f;
+import com.jme3.math.FastMath;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.VertexBuffer;
-import com.jme3.util.BufferUtils;
 
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 /**
  * Generates a mesh from a heightmap.
+ *
+ * The mesh is written straight into direct buffers taken from a pool. Call {@link #release()} once the mesh is no
+ * longer used so the buffers can be used by the next mesh. The triangle indices are shared by every mesh of the same
+ * size.
+ *
+ * A mesh can be built at a reduced level of detail, where each level halves the amount of vertices along each side
+ * of the mesh. Neighbouring meshes of different levels don't line up, so meshes built for levels of detail are
+ * given a skirt that hangs down from their edges to hide the cracks.
  */
 public class HeightMapMesh extends Mesh {
 
+    private static final MeshBufferPool bufferPool = new MeshBufferPool();
+
     private int hmapDim;
     private float[] heightmap;
 
+    private int lodLevel;
+    private int stride;
+
     public HeightMapMesh(float[] heightmap) {
+        this(heightmap, null);
+    }
+
+    /**
+     * Generates a mesh from a heightmap, splitting the work into blocks of rows if the executor allows it.
+     * @param heightmap the heightmap, including a one sample border.
+     * @param executor  the executor used to split the work, or null to build the mesh on this thread.
+     */
+    public HeightMapMesh(float[] heightmap, IntraCellExecutor executor) {
+        this(heightmap, 0, 0, executor);
+    }
+
+    /**
+     * Generates a mesh from a heightmap at the given level of detail.
+     * @param heightmap  the heightmap, including a one sample border.
+     * @param lodLevel   the level of detail. Each level doubles the distance between two vertices.
+     * @param skirtDepth how far the skirt hangs down below the edges of the mesh, or zero for no skirt.
+     * @param executor   the executor used to split the work, or null to build the mesh on this thread.
+     * @see #getEdgeError(float[], int)
+     */
+    public HeightMapMesh(float[] heightmap, int lodLevel, float skirtDepth, IntraCellExecutor executor) {
 
         super();
 
         this.heightmap = heightmap;
         this.hmapDim = (int) Math.sqrt(heightmap.length);
+        this.lodLevel = lodLevel;
+        this.stride = 1 << lodLevel;
 
-        int meshDim = hmapDim - 2;
-
-        Vector3f[] vertArray = new Vector3f[heightmap.length];
-        int[] triIndexes = new int[(vertArray.length - hmapDim) * 6];
+        int meshDim = ((hmapDim - 3) >> lodLevel) + 1;
+        boolean skirted = skirtDepth > 0;
+        int vertCount = meshDim * meshDim + (skirted ? SharedIndexBuffers.perimeterLength(meshDim) : 0);
 
-        // calculate the positions and indexes twice.
-        // once at the larger size, once at the smaller size.
-        // get the normals at the larger size and transfer them to the smaller size.
+        FloatBuffer positions = bufferPool.takeFloatBuffer(vertCount * 3);
+        FloatBuffer normals = bufferPool.takeFloatBuffer(vertCount * 3);
+        FloatBuffer texCoords = bufferPool.takeFloatBuffer(vertCount * 2);
 
-        int idx = 0;
+        // each block of rows only writes to its own part of the buffers, using absolute puts.
+        IntraCellExecutor.forEachRowBlock(executor, meshDim, (from, to) ->
+                buildRows(positions, normals, texCoords, meshDim, from, to));
 
-        for (int x = 0; x < hmapDim; x++) {
-            for (int z = 0; z < hmapDim; z++) {
-
-                // vertex
-                float height = getHeightMapValue(x, z);
-                vertArray[(z * hmapDim) + x] = new Vector3f(x, height, z);
+        if (skirted) {
+            buildSkirt(positions, normals, texCoords, meshDim, skirtDepth);
+        }
 
-                // indices
-                if (x == 0 || z == 0) continue;
+        setBuffer(VertexBuffer.Type.Position, 3, positions);
+        setBuffer(VertexBuffer.Type.Normal, 3, normals);
+        setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
 
-                triIndexes[idx++] = hmapDim * (x - 1) + z - 1; //Bottom left - First triangle
-                triIndexes[idx++] = hmapDim * x + z - 1; //Bottom right
-                triIndexes[idx++] = hmapDim * x + z; //Top right
+        // every mesh of this size has the same triangles.
+        setBuffer(SharedIndexBuffers.get(meshDim, skirted));
 
-                triIndexes[idx++] = hmapDim * x + z; //Top right - Second triangle
-                triIndexes[idx++] = hmapDim * (x - 1) + z; //Top left
-                triIndexes[idx++] = hmapDim * (x - 1) + z - 1; //Bottom left
-            }
-        }
+        updateBound();
+    }
 
-        // use these to calculate the normals.
-        Vector3f[] normArray = calcNormals(triIndexes, vertArray);
+    private void buildRows(FloatBuffer positions, FloatBuffer normals, FloatBuffer texCoords,
+                           int meshDim, int fromRow, int toRow) {
 
-        // now re-construct them to the actual size.
-        vertArray = new Vector3f[meshDim * meshDim];
-        triIndexes = new int[(vertArray.length - meshDim) * 6];
+        // each row is a contiguous run of vertices.
+        for (int row = fromRow; row < toRow; row++) {
+            for (int col = 0; col < meshDim; col++) {
 
-        idx = 0;
+                int vert = (row * meshDim) + col;
 
-        for (int x = 0; x < meshDim; x++) {
-            for (int z = 0; z < meshDim; z++) {
+                int x = col * stride;
+                int z = row * stride;
 
                 // vertex
-                float height = getHeightMapValue(x + 1, z + 1);
-                vertArray[(z * meshDim) + x] = new Vector3f(x, height, z);
+                positions.put(vert * 3, x);
+                positions.put(vert * 3 + 1, getHeightMapValue(x + 1, z + 1));
+                positions.put(vert * 3 + 2, z);
+
+                //Give UV coords X,Z world coords
+                texCoords.put(vert * 2, x);
+                texCoords.put(vert * 2 + 1, z);
+
+                // the normal from the slope between the neighbouring samples.
+                // the heightmap has a border, so the edges of neighbouring cells get the same normals.
+                // the slope is always taken from the full resolution heights, so the normals match at every level.
+                float nx = getHeightMapValue(x, z + 1) - getHeightMapValue(x + 2, z + 1);
+                float nz = getHeightMapValue(x + 1, z) - getHeightMapValue(x + 1, z + 2);
+                float length = FastMath.sqrt(nx * nx + 4 + nz * nz);
+
+                normals.put(vert * 3, nx / length);
+                normals.put(vert * 3 + 1, 2 / length);
+                normals.put(vert * 3 + 2, nz / length);
+            }
+        }
+    }
 
-                // indices
-                if (x == 0 || z == 0) continue;
+    private void buildSkirt(FloatBuffer positions, FloatBuffer normals, FloatBuffer texCoords,
+                            int meshDim, float skirtDepth) {
 
-                triIndexes[idx++] = meshDim * (x - 1) + z - 1; //Bottom left - First triangle
-                triIndexes[idx++] = meshDim * x + z - 1; //Bottom right
-                triIndexes[idx++] = meshDim * x + z; //Top right
+        int skirtStart = meshDim * meshDim;
+        int perimeter = SharedIndexBuffers.perimeterLength(meshDim);
 
-                triIndexes[idx++] = meshDim * x + z; //Top right - Second triangle
-                triIndexes[idx++] = meshDim * (x - 1) + z; //Top left
-                triIndexes[idx++] = meshDim * (x - 1) + z - 1; //Bottom left
-            }
-        }
+        // a copy of each edge vertex, moved down.
+        for (int i = 0; i < perimeter; i++) {
 
-        Vector2f[] texArray = new Vector2f[vertArray.length];
+            int vert = SharedIndexBuffers.perimeterVertex(meshDim, i);
+            int skirtVert = skirtStart + i;
 
-        //Give UV coords X,Z world coords
-        for (int i = 0; i < vertArray.length; i++) {
-            texArray[i] = new Vector2f(vertArray[i].x, vertArray[i].z);
-        }
+            positions.put(skirtVert * 3, positions.get(vert * 3));
+            positions.put(skirtVert * 3 + 1, positions.get(vert * 3 + 1) - skirtDepth);
+            positions.put(skirtVert * 3 + 2, positions.get(vert * 3 + 2));
 
-        // move the normals to their proper positions
-        Vector3f[] newNorms = new Vector3f[vertArray.length];
-        idx = 0;
-        for (int z = 0; z < meshDim; z++) {
-            for (int x = 0; x < meshDim; x++) {
+            normals.put(skirtVert * 3, normals.get(vert * 3));
+            normals.put(skirtVert * 3 + 1, normals.get(vert * 3 + 1));
+            normals.put(skirtVert * 3 + 2, normals.get(vert * 3 + 2));
 
-                newNorms[idx++] = normArray[((z + 1) * hmapDim) + (x + 1)];
-            }
+            texCoords.put(skirtVert * 2, texCoords.get(vert * 2));
+            texCoords.put(skirtVert * 2 + 1, texCoords.get(vert * 2 + 1));
         }
+    }
 
-        FloatBuffer pb = BufferUtils.createFloatBuffer(vertArray);
-        setBuffer(VertexBuffer.Type.Position, 3, pb);
-
-        FloatBuffer nb = BufferUtils.createFloatBuffer(newNorms);
-        setBuffer(VertexBuffer.Type.Normal, 3, nb);
+    /**
+     * Gets the largest vertical distance between the edges of a mesh built at the given level of detail and the
+     * edges at full resolution. Neighbouring cells share their edge heights, so the gap between two neighbouring
+     * meshes is never more than the sum of the edge errors of their levels, which is how deep a skirt has to be.
+     * @param heightmap the heightmap, including a one sample border.
+     * @param lodLevel  the level of detail.
+     * @return the largest error along the edges of the mesh.
+     */
+    public static float getEdgeError(float[] heightmap, int lodLevel) {
 
-        FloatBuffer tb = BufferUtils.createFloatBuffer(texArray);
-        setBuffer(VertexBuffer.Type.TexCoord, 2, tb);
+        int hmapDim = (int) Math.sqrt(heightmap.length);
+        int size = hmapDim - 3;
+        int stride = 1 << lodLevel;
 
-        IntBuffer ib = BufferUtils.createIntBuffer(triIndexes);
-        setBuffer(VertexBuffer.Type.Index, 3, ib);
+        float error = 0;
 
-        updateBound();
-    }
+        for (int i = 0; i < size; i += stride) {
+            for (int step = 1; step < stride; step++) {
 
+                float t = step / (float) stride;
 
-    private Vector3f[] calcNormals(int[] indices, Vector3f[] verts) {
+                // the four edges: z = 0, z = size, x = 0 and x = size.
+                error = Math.max(error, edgeError(heightmap, hmapDim, i, 0, 1, 0, stride, step, t));
+                error = Math.max(error, edgeError(heightmap, hmapDim, i, size, 1, 0, stride, step, t));
+                error = Math.max(error, edgeError(heightmap, hmapDim, 0, i, 0, 1, stride, step, t));
+                error = Math.max(error, edgeError(heightmap, hmapDim, size, i, 0, 1, stride, step, t));
+            }
+        }
 
-        int numIndices = indices.length;
+        return error;
+    }
 
-        Vector3f[] norms = new Vector3f[verts.length];
+    private static float edgeError(float[] heightmap, int hmapDim, int x, int z, int dx, int dz,
+                                   int stride, int step, float t) {
 
-        for (int i = 0; i < norms.length; i++) {
-            norms[i] = new Vector3f();
-        }
+        float from = heightmap[(z + 1) * hmapDim + x + 1];
+        float to = heightmap[(z + dz * stride + 1) * hmapDim + x + dx * stride + 1];
+        float actual = heightmap[(z + dz * step + 1) * hmapDim + x + dx * step + 1];
 
-        for (int t = 0; t < numIndices / 3; ++t)
-        {
-            int t1 = indices[t*3+0];
-            int t2 = indices[t*3+1];
-            int t3 = indices[t*3+2];
-            Vector3f a = verts[t1];
-            Vector3f b = verts[t2];
-            Vector3f c = verts[t3];
+        return Math.abs(actual - (from + (to - from) * t));
+    }
 
-            Vector3f u = b.subtract(a);
-            Vector3f v = c.subtract(a);
-            Vector3f n = u.cross(v);
+    public int getLodLevel() {
+        return lodLevel;
+    }
 
-            norms[t1].addLocal(n);
-            norms[t2].addLocal(n);
-            norms[t3].addLocal(n);
+    /**
+     * Returns the buffers of this mesh to the pool. The mesh must not be used or rendered afterwards.
+     * The shared index buffer is left alone.
+     */
+    public void release() {
 
-        }
+        for (VertexBuffer vertexBuffer : getBufferList()) {
 
-        for (Vector3f norm : norms) {
-            norm.normalizeLocal();
+            if (vertexBuffer.getData() != null && !SharedIndexBuffers.isShared(vertexBuffer)) {
+                bufferPool.release(vertexBuffer.getData());
+                vertexBuffer.updateData(null);
+            }
         }
-
-        return norms;
     }
 
     private float getHeightMapValue(int x, int z) {
@@ -0,0 +1,121 @@
+package com.jayfella.jme.worldpager.core;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Splits the work of building a single cell into blocks of rows that run on the common work-stealing pool.
+ *
+ * The work is only split when fewer cells are being built than there are cores, such as right after a teleport
+ * when only a few large cells are pending. Under load, each cell stays on the single thread that builds it.
+ */
+public class IntraCellExecutor {
+
+    // blocks smaller than this cost more to schedule than they save.
+    private static final int MIN_BLOCK_ROWS = 16;
+
+    private final ExecutorService cellPool;
+    private final int parallelism;
+
+    /**
+     * Creates an executor that splits work when the given pool is not busy.
+     * @param cellPool the pool that cells are built on. Work is never split unless it is a ThreadPoolExecutor.
+     */
+    public IntraCellExecutor(ExecutorService cellPool) {
+        this.cellPool = cellPool;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Determines whether or not work is currently being split.
+     * @return true if there are fewer cells being built than there are cores.
+     */
+    public boolean isSplitting() {
+
+        if (parallelism < 2 || !(cellPool instanceof ThreadPoolExecutor)) {
+            return false;
+        }
+
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) cellPool;
+        int pending = executor.getActiveCount() + executor.getQueue().size();
+
+        return pending < parallelism;
+    }
+
+    /**
+     * Performs the given action on every row, either in a single call or split into blocks of rows that run in
+     * parallel. Returns once every row is done. Each block must only write to its own rows.
+     * @param rows   the amount of rows.
+     * @param action the action to perform on each block of rows.
+     */
+    public void forEachRowBlock(int rows, RowBlockAction action) {
+
+        if (rows < MIN_BLOCK_ROWS * 2 || !isSplitting()) {
+            action.apply(0, rows);
+            return;
+        }
+
+        // a few blocks per core so idle cores can steal from busy ones.
+        int blockRows = Math.max(MIN_BLOCK_ROWS, (rows + parallelism * 2 - 1) / (parallelism * 2));
+
+        new RowBlockTask(action, 0, rows, blockRows).invoke();
+    }
+
+    /**
+     * Performs the given action on every row of the given executor, or in a single call if there is no executor.
+     * @param executor the executor to split the work with, or null to never split.
+     * @param rows     the amount of rows.
+     * @param action   the action to perform on each block of rows.
+     */
+    public static void forEachRowBlock(IntraCellExecutor executor, int rows, RowBlockAction action) {
+
+        if (executor == null) {
+            action.apply(0, rows);
+        }
+        else {
+            executor.forEachRowBlock(rows, action);
+        }
+    }
+
+    public interface RowBlockAction {
+
+        /**
+         * Performs work on a block of rows.
+         * @param fromRow the first row, inclusive.
+         * @param toRow   the last row, exclusive.
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    private static final class RowBlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowBlockAction action;
+        private final int fromRow, toRow;
+        private final int blockRows;
+
+        private RowBlockTask(RowBlockAction action, int fromRow, int toRow, int blockRows) {
+            this.action = action;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.blockRows = blockRows;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (toRow - fromRow <= blockRows) {
+                action.apply(fromRow, toRow);
+                return;
+            }
+
+            int mid = (fromRow + toRow) >>> 1;
+
+            invokeAll(new RowBlockTask(action, fromRow, mid, blockRows),
+                    new RowBlockTask(action, mid, toRow, blockRows));
+        }
+    }
+
+}
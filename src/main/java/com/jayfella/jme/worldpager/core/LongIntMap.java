@@ -0,0 +1,180 @@
+package com.jayfella.jme.worldpager.core;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map of primitive long keys to int counts.
+ * Used to reference-count grid cells by their packed position. Keys are removed when their count reaches zero.
+ *
+ * @see GridPos2i#toKey(int, int)
+ */
+public class LongIntMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private boolean[] used;
+
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    public LongIntMap() {
+        this(64);
+    }
+
+    public LongIntMap(int expectedSize) {
+        allocate(LongSet.tableSizeFor(expectedSize, LOAD_FACTOR));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int indexOf(long key) {
+
+        int index = LongSet.hash(key) & mask;
+
+        while (used[index]) {
+
+            if (keys[index] == key) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the count of the given key.
+     * @param key the key.
+     * @return the count of the key, or zero if the key is not present.
+     */
+    public int get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? 0 : values[index];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Adds one to the count of the given key.
+     * @param key the key.
+     * @return the new count of the key.
+     */
+    public int increment(long key) {
+
+        int index = LongSet.hash(key) & mask;
+
+        while (used[index]) {
+
+            if (keys[index] == key) {
+                return ++values[index];
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = 1;
+
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+
+        return 1;
+    }
+
+    /**
+     * Subtracts one from the count of the given key, removing the key if the count reaches zero.
+     * @param key the key.
+     * @return the new count of the key, or zero if the key was removed or not present.
+     */
+    public int decrement(long key) {
+
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return 0;
+        }
+
+        if (--values[index] > 0) {
+            return values[index];
+        }
+
+        removeAt(index);
+        return 0;
+    }
+
+    private void removeAt(int index) {
+
+        size--;
+
+        int gap = index;
+        int next = (gap + 1) & mask;
+
+        while (used[next]) {
+
+            int ideal = LongSet.hash(keys[next]) & mask;
+
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        used[gap] = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldUsed.length; i++) {
+
+            if (oldUsed[i]) {
+
+                int index = LongSet.hash(oldKeys[i]) & mask;
+
+                while (used[index]) {
+                    index = (index + 1) & mask;
+                }
+
+                used[index] = true;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.jayfella.jme.worldpager.core;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * An open-addressing hash map with primitive long keys.
+ * Used to store grid cells by their packed position without boxing the key or creating entry objects.
+ *
+ * @see GridPos2i#toKey(int, int)
+ * @param <V> the type of value held in the map.
+ */
+public class LongObjectMap<V> {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    public LongObjectMap() {
+        this(64);
+    }
+
+    public LongObjectMap(int expectedSize) {
+        allocate(LongSet.tableSizeFor(expectedSize, LOAD_FACTOR));
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int indexOf(long key) {
+
+        int index = LongSet.hash(key) & mask;
+
+        while (used[index]) {
+
+            if (keys[index] == key) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    public boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Associates the value with the given key.
+     * @param key   the key.
+     * @param value the value.
+     * @return the previous value of the key, or null if the key was not present.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+
+        int index = LongSet.hash(key) & mask;
+
+        while (used[index]) {
+
+            if (keys[index] == key) {
+                V old = (V) values[index];
+                values[index] = value;
+                return old;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+
+        return null;
+    }
+
+    /**
+     * Removes the given key from the map.
+     * @param key the key to remove.
+     * @return the value of the removed key, or null if the key was not present.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return null;
+        }
+
+        V old = (V) values[index];
+        removeAt(index);
+        return old;
+    }
+
+    /**
+     * Removes the entry at the given slot and shifts back any entries that collided with it,
+     * so lookups never need tombstones.
+     */
+    private void removeAt(int index) {
+
+        size--;
+
+        int gap = index;
+        int next = (gap + 1) & mask;
+
+        while (used[next]) {
+
+            int ideal = LongSet.hash(keys[next]) & mask;
+
+            // move the entry into the gap if the gap lies between its ideal slot and its current slot.
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        used[gap] = false;
+        values[gap] = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> consumer) {
+        for (int i = 0; i < used.length; i++) {
+            if (used[i]) {
+                consumer.accept((V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes every entry whose value matches the given filter.
+     * The filter may be evaluated more than once for an entry it did not remove.
+     * @param filter the filter that determines which entries are removed.
+     * @return true if any entries were removed.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean removeValuesIf(Predicate<V> filter) {
+
+        boolean removed = false;
+
+        for (int i = 0; i < used.length; i++) {
+
+            // removing shifts a later entry into this slot, so look at the same slot again.
+            while (used[i] && filter.test((V) values[i])) {
+                removeAt(i);
+                removed = true;
+            }
+        }
+
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldUsed.length; i++) {
+
+            if (oldUsed[i]) {
+
+                int index = LongSet.hash(oldKeys[i]) & mask;
+
+                while (used[index]) {
+                    index = (index + 1) & mask;
+                }
+
+                used[index] = true;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,203 @@
+package com.jayfella.jme.worldpager.core;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * An open-addressing hash set of primitive long values.
+ * Used to store packed grid positions without boxing.
+ *
+ * @see GridPos2i#toKey(int, int)
+ */
+public class LongSet {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private boolean[] used;
+
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    // where removeAny() continues searching from.
+    private int cursor;
+
+    public LongSet() {
+        this(64);
+    }
+
+    public LongSet(int expectedSize) {
+        allocate(tableSizeFor(expectedSize, LOAD_FACTOR));
+    }
+
+    static int tableSizeFor(int expectedSize, float loadFactor) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) Math.ceil(expectedSize / loadFactor)) - 1) << 1;
+        return Math.max(capacity, 8);
+    }
+
+    /**
+     * Spreads the bits of a packed position so neighbouring cells do not cluster in the table.
+     */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+        cursor = 0;
+    }
+
+    private int indexOf(long key) {
+
+        int index = hash(key) & mask;
+
+        while (used[index]) {
+
+            if (keys[index] == key) {
+                return index;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    public boolean contains(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Adds the value to the set.
+     * @param key the value to add.
+     * @return true if the value was not already present.
+     */
+    public boolean add(long key) {
+
+        int index = hash(key) & mask;
+
+        while (used[index]) {
+
+            if (keys[index] == key) {
+                return false;
+            }
+
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes the value from the set.
+     * @param key the value to remove.
+     * @return true if the value was present.
+     */
+    public boolean remove(long key) {
+
+        int index = indexOf(key);
+
+        if (index < 0) {
+            return false;
+        }
+
+        removeAt(index);
+        return true;
+    }
+
+    /**
+     * Removes and returns any value in the set.
+     * @return a value that was in the set.
+     * @throws NoSuchElementException if the set is empty.
+     */
+    public long removeAny() {
+
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        while (!used[cursor]) {
+            cursor = (cursor + 1) & mask;
+        }
+
+        long key = keys[cursor];
+
+        // removing only ever shifts entries into the cursor slot, so nothing is skipped.
+        removeAt(cursor);
+        return key;
+    }
+
+    private void removeAt(int index) {
+
+        size--;
+
+        int gap = index;
+        int next = (gap + 1) & mask;
+
+        while (used[next]) {
+
+            int ideal = hash(keys[next]) & mask;
+
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                gap = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        used[gap] = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+        cursor = 0;
+    }
+
+    private void rehash(int capacity) {
+
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+
+        for (int i = 0; i < oldUsed.length; i++) {
+
+            if (oldUsed[i]) {
+
+                int index = hash(oldKeys[i]) & mask;
+
+                while (used[index]) {
+                    index = (index + 1) & mask;
+                }
+
+                used[index] = true;
+                keys[index] = oldKeys[i];
+            }
+        }
+    }
+
+}
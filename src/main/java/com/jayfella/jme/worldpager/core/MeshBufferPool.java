@@ -0,0 +1,157 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.util.BufferUtils;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of direct buffers, grouped by capacity.
+ * Every cell of a grid has the same size, so the buffers of a destroyed cell fit the next cell exactly.
+ *
+ * Buffers must only be released once nothing reads them anymore, including the renderer.
+ */
+public class MeshBufferPool {
+
+    // the amount of buffers kept for each capacity. Anything over is left to the garbage collector.
+    private static final int MAX_POOLED = 64;
+
+    private final ConcurrentHashMap<Integer, Pool<FloatBuffer>> floatBuffers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Pool<IntBuffer>> intBuffers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Pool<ShortBuffer>> shortBuffers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Pool<ByteBuffer>> byteBuffers = new ConcurrentHashMap<>();
+
+    /**
+     * Takes a float buffer from the pool, or creates one if there are none of the given capacity.
+     * The contents of the buffer are undefined.
+     * @param capacity the capacity of the buffer.
+     * @return a cleared buffer of the given capacity.
+     */
+    public FloatBuffer takeFloatBuffer(int capacity) {
+
+        Pool<FloatBuffer> pool = floatBuffers.get(capacity);
+        FloatBuffer buffer = pool == null ? null : pool.take();
+
+        if (buffer == null) {
+            return BufferUtils.createFloatBuffer(capacity);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Takes an int buffer from the pool, or creates one if there are none of the given capacity.
+     * The contents of the buffer are undefined.
+     * @param capacity the capacity of the buffer.
+     * @return a cleared buffer of the given capacity.
+     */
+    public IntBuffer takeIntBuffer(int capacity) {
+
+        Pool<IntBuffer> pool = intBuffers.get(capacity);
+        IntBuffer buffer = pool == null ? null : pool.take();
+
+        if (buffer == null) {
+            return BufferUtils.createIntBuffer(capacity);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Takes a short buffer from the pool, or creates one if there are none of the given capacity.
+     * The contents of the buffer are undefined.
+     * @param capacity the capacity of the buffer.
+     * @return a cleared buffer of the given capacity.
+     */
+    public ShortBuffer takeShortBuffer(int capacity) {
+
+        Pool<ShortBuffer> pool = shortBuffers.get(capacity);
+        ShortBuffer buffer = pool == null ? null : pool.take();
+
+        if (buffer == null) {
+            return BufferUtils.createShortBuffer(capacity);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Takes a byte buffer from the pool, or creates one if there are none of the given capacity.
+     * The contents of the buffer are undefined.
+     * @param capacity the capacity of the buffer.
+     * @return a cleared buffer of the given capacity.
+     */
+    public ByteBuffer takeByteBuffer(int capacity) {
+
+        Pool<ByteBuffer> pool = byteBuffers.get(capacity);
+        ByteBuffer buffer = pool == null ? null : pool.take();
+
+        if (buffer == null) {
+            return BufferUtils.createByteBuffer(capacity);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool so it can be used again.
+     * @param buffer the buffer to return. Buffers that are not direct are ignored.
+     */
+    public void release(Buffer buffer) {
+
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        if (buffer instanceof FloatBuffer) {
+            floatBuffers.computeIfAbsent(buffer.capacity(), capacity -> new Pool<>()).offer((FloatBuffer) buffer);
+        }
+        else if (buffer instanceof IntBuffer) {
+            intBuffers.computeIfAbsent(buffer.capacity(), capacity -> new Pool<>()).offer((IntBuffer) buffer);
+        }
+        else if (buffer instanceof ShortBuffer) {
+            shortBuffers.computeIfAbsent(buffer.capacity(), capacity -> new Pool<>()).offer((ShortBuffer) buffer);
+        }
+        else if (buffer instanceof ByteBuffer) {
+            byteBuffers.computeIfAbsent(buffer.capacity(), capacity -> new Pool<>()).offer((ByteBuffer) buffer);
+        }
+    }
+
+    private static final class Pool<T extends Buffer> {
+
+        private final Queue<T> buffers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private T take() {
+
+            T buffer = buffers.poll();
+
+            if (buffer != null) {
+                size.decrementAndGet();
+            }
+
+            return buffer;
+        }
+
+        private void offer(T buffer) {
+            if (size.incrementAndGet() <= MAX_POOLED) {
+                buffers.offer(buffer);
+            }
+            else {
+                size.decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -6,5 +6,36 @@ import com.jme3.math.Vector2f;
  * A generic noise evaluator that allows the user to use any noise generator.
  */
 public abstract class NoiseEvaluator {
+
     public abstract float evaluate(Vector2f loc);
+
+    /**
+     * Evaluates a rectangular region of samples. The samples are written row by row, so the sample at (x, z) is
+     * stored at {@code dest[z * width + x]} and evaluated at {@code (originX + x * step, originZ + z * step)}.
+     *
+     * The default implementation calls {@link #evaluate(Vector2f)} for each sample. Evaluators that can sample a
+     * region more efficiently should override it.
+     *
+     * @param dest    the array to fill. Must hold at least width * depth samples.
+     * @param originX the world x coordinate of the first sample.
+     * @param originZ the world z coordinate of the first sample.
+     * @param step    the distance between samples.
+     * @param width   the amount of samples along the x axis.
+     * @param depth   the amount of samples along the z axis.
+     */
+    public void evaluate(float[] dest, float originX, float originZ, float step, int width, int depth) {
+
+        Vector2f loc = new Vector2f();
+
+        for (int z = 0; z < depth; z++) {
+
+            float worldZ = originZ + z * step;
+            int row = z * width;
+
+            for (int x = 0; x < width; x++) {
+                // set both values every time in case the evaluator modifies the location.
+                dest[row + x] = evaluate(loc.set(originX + x * step, worldZ));
+            }
+        }
+    }
 }
@@ -0,0 +1,16 @@
+package com.jayfella.jme.worldpager.core;
+
+/**
+ * Creates noise evaluators. Used to give each thread its own evaluator so evaluators that hold mutable state don't
+ * need to be thread-safe.
+ */
+public interface NoiseFactory {
+
+    /**
+     * Creates a new noise evaluator. Every evaluator created with the same seed must return the same values.
+     * @param seed the seed of the world.
+     * @return a new noise evaluator.
+     */
+    NoiseEvaluator createNoise(long seed);
+
+}
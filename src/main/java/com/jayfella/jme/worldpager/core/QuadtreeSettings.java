@@ -0,0 +1,133 @@
+package com.jayfella.jme.worldpager.core;
+
+/**
+ * Settings that define the size and behavior of a quadtree grid.
+ *
+ * The world is covered by root nodes that are split into four children while a follower is near enough, down to the
+ * leaf size. Every node has a mesh of the same resolution, so a node twice as large has vertices twice as far apart.
+ *
+ * The root size, leaf size and resolution shape the tree and are only read when a grid is created.
+ */
+public class QuadtreeSettings {
+
+    private int rootSize = 2048;
+    private int leafSize = 32;
+    private int resolution = 32;
+    private int viewDistance = 1;
+    private float splitDistance = 2.0f;
+    private float skirtDepth = 1.0f;
+
+    /**
+     * Gets the size of a root node in world units.
+     * @return the size of a root node.
+     */
+    public int getRootSize() {
+        return rootSize;
+    }
+
+    /**
+     * Sets the size of a root node in world units. The largest nodes are this size.
+     * @param rootSize the size of a root node. Must be a power of two and no smaller than the leaf size.
+     */
+    public void setRootSize(int rootSize) {
+        checkPowerOfTwo(rootSize, "rootSize");
+        this.rootSize = rootSize;
+    }
+
+    /**
+     * Gets the size of the smallest nodes in world units.
+     * @return the size of a leaf node.
+     */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * Sets the size of the smallest nodes in world units. Nodes are never split below this size.
+     * @param leafSize the size of a leaf node. Must be a power of two.
+     */
+    public void setLeafSize(int leafSize) {
+        checkPowerOfTwo(leafSize, "leafSize");
+        this.leafSize = leafSize;
+    }
+
+    /**
+     * Gets the amount of quads along each side of the mesh of a node.
+     * @return the resolution of a node.
+     */
+    public int getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Sets the amount of quads along each side of the mesh of every node, regardless of its size.
+     * @param resolution the resolution of a node. Must be a power of two and at least 2.
+     */
+    public void setResolution(int resolution) {
+        checkPowerOfTwo(resolution, "resolution");
+
+        if (resolution < 2) {
+            throw new IllegalArgumentException("resolution must be at least 2");
+        }
+
+        this.resolution = resolution;
+    }
+
+    /**
+     * Gets how many root nodes are loaded from the root node of a follower in each cardinal direction.
+     * @return the view distance in root nodes.
+     */
+    public int getViewDistance() {
+        return viewDistance;
+    }
+
+    /**
+     * Sets how many root nodes are loaded from the root node of a follower in each cardinal direction.
+     * @param viewDistance the view distance in root nodes.
+     */
+    public void setViewDistance(int viewDistance) {
+        this.viewDistance = viewDistance;
+    }
+
+    /**
+     * Gets how near a follower must be to a node, relative to the size of the node, for the node to be split.
+     * @return the split distance as a multiple of the node size.
+     */
+    public float getSplitDistance() {
+        return splitDistance;
+    }
+
+    /**
+     * Sets how near a follower must be to a node, relative to the size of the node, for the node to be split.
+     * A larger distance gives more detail further away. Values below 1 allow neighbouring nodes to differ by more
+     * than one level.
+     * @param splitDistance the split distance as a multiple of the node size.
+     */
+    public void setSplitDistance(float splitDistance) {
+        this.splitDistance = splitDistance;
+    }
+
+    /**
+     * Gets the least distance the skirt of a node hangs down below its edges.
+     * @return the least depth of a skirt in world units.
+     */
+    public float getSkirtDepth() {
+        return skirtDepth;
+    }
+
+    /**
+     * Sets the least distance the skirt of a node hangs down below its edges. The skirt is made deeper by however far
+     * the edges of the node can drift from a neighbour of any other size.
+     * @param skirtDepth the least depth of a skirt in world units.
+     */
+    public void setSkirtDepth(float skirtDepth) {
+        this.skirtDepth = skirtDepth;
+    }
+
+    private static void checkPowerOfTwo(int value, String name) {
+        if (value <= 0 || Integer.bitCount(value) != 1) {
+            throw new IllegalArgumentException(name + " must be a power of two: " + value);
+        }
+    }
+
+}
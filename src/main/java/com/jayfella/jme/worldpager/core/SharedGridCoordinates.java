@@ -0,0 +1,83 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Grid coordinate buffers shared by every compact heightmap mesh of the same size.
+ *
+ * A compact mesh only stores the height and normal of each vertex. The x and z location of a vertex is the same for
+ * every mesh of a given size, so it is stored once per size in the texture coordinate stream and used by every mesh
+ * of that size. Reduced levels of detail and skirts have buffers of their own. Shared buffers must never be modified
+ * or released.
+ *
+ * @see CompactHeightMapMesh
+ */
+public final class SharedGridCoordinates {
+
+    private static final ConcurrentHashMap<Integer, VertexBuffer> coordinateBuffers = new ConcurrentHashMap<>();
+
+    private SharedGridCoordinates() {
+    }
+
+    /**
+     * Gets the grid coordinates of a square grid of vertices.
+     * @param meshDim the amount of vertices along each side of the grid.
+     * @return the shared coordinate buffer of the grid.
+     */
+    public static VertexBuffer get(int meshDim) {
+        return get(meshDim, 1, false);
+    }
+
+    /**
+     * Gets the grid coordinates of a square grid of vertices that are spaced apart, optionally surrounded by a skirt.
+     * @param meshDim the amount of vertices along each side of the grid.
+     * @param stride  the distance between two vertices.
+     * @param skirted whether or not the grid has a skirt.
+     * @return the shared coordinate buffer of the grid.
+     * @see SharedIndexBuffers#get(int, boolean)
+     */
+    public static VertexBuffer get(int meshDim, int stride, boolean skirted) {
+        int key = (meshDim << 10 | stride) << 1 | (skirted ? 1 : 0);
+        return coordinateBuffers.computeIfAbsent(key, k -> create(meshDim, stride, skirted));
+    }
+
+    /**
+     * Determines whether or not the given buffer is shared, and so must not be modified or released.
+     * @param vertexBuffer the buffer to check.
+     * @return true if the buffer is a shared coordinate buffer.
+     */
+    public static boolean isShared(VertexBuffer vertexBuffer) {
+        return coordinateBuffers.containsValue(vertexBuffer);
+    }
+
+    private static VertexBuffer create(int meshDim, int stride, boolean skirted) {
+
+        int perimeter = skirted ? SharedIndexBuffers.perimeterLength(meshDim) : 0;
+        ShortBuffer buffer = BufferUtils.createShortBuffer((meshDim * meshDim + perimeter) * 2);
+
+        // the same vertex order as the heightmap mesh.
+        for (int z = 0; z < meshDim; z++) {
+            for (int x = 0; x < meshDim; x++) {
+                buffer.put((short) (x * stride)).put((short) (z * stride));
+            }
+        }
+
+        // the skirt vertices lie below the edge vertices.
+        for (int i = 0; i < perimeter; i++) {
+            int vert = SharedIndexBuffers.perimeterVertex(meshDim, i);
+            buffer.put(buffer.get(vert * 2)).put(buffer.get(vert * 2 + 1));
+        }
+
+        buffer.flip();
+
+        VertexBuffer vertexBuffer = new VertexBuffer(VertexBuffer.Type.TexCoord);
+        vertexBuffer.setupData(VertexBuffer.Usage.Static, 2, VertexBuffer.Format.UnsignedShort, buffer);
+
+        return vertexBuffer;
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Triangle index buffers shared by every heightmap mesh of the same size.
+ *
+ * A heightmap mesh of a given size always has the same triangles, so one index buffer per size is created and used
+ * by every mesh of that size, including reduced levels of detail. The buffers use shorts when the vertex count
+ * allows it. Shared buffers must never be modified or released.
+ *
+ * A mesh with a skirt has an extra ring of vertices after the grid vertices, one below each vertex on the edge of the
+ * grid, in the order given by {@link #perimeterVertex(int, int)}. The skirt hides the cracks between neighbouring
+ * meshes of a different level of detail.
+ */
+public final class SharedIndexBuffers {
+
+    private static final ConcurrentHashMap<Integer, VertexBuffer> indexBuffers = new ConcurrentHashMap<>();
+
+    private SharedIndexBuffers() {
+    }
+
+    /**
+     * Gets the index buffer of a square grid of vertices.
+     * @param meshDim the amount of vertices along each side of the grid.
+     * @return the shared index buffer of the grid.
+     */
+    public static VertexBuffer get(int meshDim) {
+        return get(meshDim, false);
+    }
+
+    /**
+     * Gets the index buffer of a square grid of vertices, optionally surrounded by a skirt.
+     * @param meshDim the amount of vertices along each side of the grid.
+     * @param skirted whether or not the grid has a skirt.
+     * @return the shared index buffer of the grid.
+     */
+    public static VertexBuffer get(int meshDim, boolean skirted) {
+        return indexBuffers.computeIfAbsent(meshDim << 1 | (skirted ? 1 : 0), key -> create(meshDim, skirted));
+    }
+
+    /**
+     * Determines whether or not the given buffer is shared, and so must not be modified or released.
+     * @param vertexBuffer the buffer to check.
+     * @return true if the buffer is a shared index buffer.
+     */
+    public static boolean isShared(VertexBuffer vertexBuffer) {
+        // there is only ever one buffer per cell size and level of detail, so this is a short search.
+        return indexBuffers.containsValue(vertexBuffer);
+    }
+
+    /**
+     * Gets the amount of vertices on the edge of a square grid of vertices, which is the amount of vertices in its
+     * skirt.
+     * @param meshDim the amount of vertices along each side of the grid.
+     * @return the amount of vertices on the edge of the grid.
+     */
+    public static int perimeterLength(int meshDim) {
+        return (meshDim - 1) * 4;
+    }
+
+    /**
+     * Gets the vertex at the given place on the edge of a square grid of vertices. The edge is walked from the
+     * corner at the origin along the x axis first, so the skirt triangles face outwards.
+     * @param meshDim the amount of vertices along each side of the grid.
+     * @param index   the place on the edge, from zero to the perimeter length.
+     * @return the index of the grid vertex, where vertices are ordered by row along the z axis.
+     */
+    public static int perimeterVertex(int meshDim, int index) {
+
+        int last = meshDim - 1;
+        int along = index % last;
+
+        switch (index / last) {
+            case 0: return along;
+            case 1: return along * meshDim + last;
+            case 2: return last * meshDim + last - along;
+            default: return (last - along) * meshDim;
+        }
+    }
+
+    private static VertexBuffer create(int meshDim, boolean skirted) {
+
+        int indexCount = (meshDim - 1) * (meshDim - 1) * 6;
+        int vertexCount = meshDim * meshDim;
+
+        if (skirted) {
+            indexCount += perimeterLength(meshDim) * 6;
+            vertexCount += perimeterLength(meshDim);
+        }
+
+        VertexBuffer vertexBuffer = new VertexBuffer(VertexBuffer.Type.Index);
+
+        // the largest index is vertexCount - 1.
+        if (vertexCount <= 65536) {
+            ShortBuffer buffer = BufferUtils.createShortBuffer(indexCount);
+            fill(meshDim, skirted, (index, value) -> buffer.put(index, (short) value));
+            vertexBuffer.setupData(VertexBuffer.Usage.Static, 3, VertexBuffer.Format.UnsignedShort, buffer);
+        }
+        else {
+            IntBuffer buffer = BufferUtils.createIntBuffer(indexCount);
+            fill(meshDim, skirted, buffer::put);
+            vertexBuffer.setupData(VertexBuffer.Usage.Static, 3, VertexBuffer.Format.UnsignedInt, buffer);
+        }
+
+        return vertexBuffer;
+    }
+
+    private static void fill(int meshDim, boolean skirted, IndexWriter writer) {
+
+        int idx = 0;
+
+        for (int x = 1; x < meshDim; x++) {
+            for (int z = 1; z < meshDim; z++) {
+
+                writer.put(idx++, meshDim * (x - 1) + z - 1); //Bottom left - First triangle
+                writer.put(idx++, meshDim * x + z - 1); //Bottom right
+                writer.put(idx++, meshDim * x + z); //Top right
+
+                writer.put(idx++, meshDim * x + z); //Top right - Second triangle
+                writer.put(idx++, meshDim * (x - 1) + z); //Top left
+                writer.put(idx++, meshDim * (x - 1) + z - 1); //Bottom left
+            }
+        }
+
+        if (skirted) {
+
+            int perimeter = perimeterLength(meshDim);
+            int skirtStart = meshDim * meshDim;
+
+            for (int i = 0; i < perimeter; i++) {
+
+                int next = (i + 1) % perimeter;
+
+                int top = perimeterVertex(meshDim, i);
+                int nextTop = perimeterVertex(meshDim, next);
+
+                writer.put(idx++, top);
+                writer.put(idx++, nextTop);
+                writer.put(idx++, skirtStart + i);
+
+                writer.put(idx++, nextTop);
+                writer.put(idx++, skirtStart + next);
+                writer.put(idx++, skirtStart + i);
+            }
+        }
+    }
+
+    private interface IndexWriter {
+        void put(int index, int value);
+    }
+
+}
@@ -0,0 +1,394 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.math.FastMath;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.util.BufferUtils;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates a mesh from a heightmap with as few triangles as it takes to stay within a vertical error.
+ *
+ * The mesh is a right-triangulated irregular network: the cell is split into two right triangles, and a triangle is
+ * split in half across its longest edge for as long as a height it covers could be further than the error from the
+ * triangle. The error of a triangle is a bound built up from its halves, so the mesh is never further than the
+ * error from the heightmap, though it can have a few more triangles than it needs. The error is kept by the vertex in
+ * the middle of the longest edge and includes the errors of the vertices below it, so splitting one triangle also
+ * splits its neighbour and the mesh never has cracks inside the cell.
+ *
+ * The edges of the cell are always kept at the full resolution of the level of detail, so they line up exactly with
+ * a regular or simplified neighbour of the same level. The vertices have the same positions, normals and texture
+ * coordinates as a {@link HeightMapMesh}, and can be given the same skirt.
+ *
+ * The amount of triangles differs for every cell, so the buffers aren't pooled or shared and are left to the garbage
+ * collector. Call {@link #release()} once the mesh is no longer used so they aren't held by the mesh.
+ */
+public class SimplifiedHeightMapMesh extends Mesh {
+
+    // the corners of every triangle in the hierarchy of a grid size, which are the same for every cell.
+    private static final ConcurrentHashMap<Integer, int[]> triangleCoordinates = new ConcurrentHashMap<>();
+
+    private final int hmapDim;
+    private final float[] heightmap;
+    private final int lodLevel;
+    private final int stride;
+
+    private final int meshDim;
+    private final float maxError;
+    private final float[] errors;
+
+    // the index of each grid vertex in the mesh, or -1 if it isn't used.
+    private final int[] vertexIndices;
+    private int vertexCount;
+
+    private int[] triangles;
+    private int triangleCount;
+
+    public SimplifiedHeightMapMesh(float[] heightmap, float maxError) {
+        this(heightmap, maxError, 0, 0);
+    }
+
+    /**
+     * Generates a simplified mesh from a heightmap at the given level of detail.
+     * @param heightmap  the heightmap, including a one sample border. The size of the cell must be a power of two.
+     * @param maxError   the largest vertical distance between the mesh and the heights it is built from.
+     * @param lodLevel   the level of detail. Each level doubles the distance between two vertices.
+     * @param skirtDepth how far the skirt hangs down below the edges of the mesh, or zero for no skirt.
+     * @see HeightMapMesh#getEdgeError(float[], int)
+     */
+    public SimplifiedHeightMapMesh(float[] heightmap, float maxError, int lodLevel, float skirtDepth) {
+
+        super();
+
+        this.heightmap = heightmap;
+        this.hmapDim = (int) Math.sqrt(heightmap.length);
+        this.lodLevel = lodLevel;
+        this.stride = 1 << lodLevel;
+        this.maxError = maxError;
+
+        this.meshDim = ((hmapDim - 3) >> lodLevel) + 1;
+
+        if (Integer.bitCount(meshDim - 1) != 1) {
+            throw new IllegalArgumentException("The size of a simplified mesh must be a power of two: " + (meshDim - 1));
+        }
+
+        this.errors = new float[meshDim * meshDim];
+        this.vertexIndices = new int[meshDim * meshDim];
+        Arrays.fill(vertexIndices, -1);
+
+        // never more than two triangles per quad, and two per skirt quad.
+        this.triangles = new int[(meshDim - 1) * (meshDim - 1) * 6 + SharedIndexBuffers.perimeterLength(meshDim) * 6];
+
+        calculateErrors();
+
+        int last = meshDim - 1;
+        addTriangle(0, 0, last, last, last, 0);
+        addTriangle(last, last, 0, 0, 0, last);
+
+        boolean skirted = skirtDepth > 0;
+        int perimeter = skirted ? SharedIndexBuffers.perimeterLength(meshDim) : 0;
+        int vertCount = vertexCount + perimeter;
+
+        FloatBuffer positions = BufferUtils.createFloatBuffer(vertCount * 3);
+        FloatBuffer normals = BufferUtils.createFloatBuffer(vertCount * 3);
+        FloatBuffer texCoords = BufferUtils.createFloatBuffer(vertCount * 2);
+
+        buildVertices(positions, normals, texCoords);
+
+        if (skirted) {
+            buildSkirt(positions, normals, texCoords, skirtDepth);
+        }
+
+        setBuffer(VertexBuffer.Type.Position, 3, positions);
+        setBuffer(VertexBuffer.Type.Normal, 3, normals);
+        setBuffer(VertexBuffer.Type.TexCoord, 2, texCoords);
+
+        int indexCount = triangleCount * 3 + perimeter * 6;
+
+        if (skirted) {
+            addSkirtTriangles(perimeter);
+        }
+
+        // the largest index is vertCount - 1.
+        if (vertCount <= 65536) {
+            ShortBuffer indices = BufferUtils.createShortBuffer(indexCount);
+
+            for (int i = 0; i < indexCount; i++) {
+                indices.put((short) triangles[i]);
+            }
+
+            indices.flip();
+            setBuffer(VertexBuffer.Type.Index, 3, indices);
+        }
+        else {
+            IntBuffer indices = BufferUtils.createIntBuffer(indexCount);
+            indices.put(triangles, 0, indexCount).flip();
+            setBuffer(VertexBuffer.Type.Index, 3, indices);
+        }
+
+        triangles = null;
+
+        updateBound();
+    }
+
+    // the error of each vertex is the error of either triangle it splits, or the error of the vertices that split
+    // the halves of those triangles, whichever is largest.
+    private void calculateErrors() {
+
+        int last = meshDim - 1;
+
+        // the edges are always at full resolution.
+        for (int i = 0; i < meshDim; i++) {
+            errors[i] = Float.POSITIVE_INFINITY;
+            errors[last * meshDim + i] = Float.POSITIVE_INFINITY;
+            errors[i * meshDim] = Float.POSITIVE_INFINITY;
+            errors[i * meshDim + last] = Float.POSITIVE_INFINITY;
+        }
+
+        int[] coords = getTriangleCoordinates(meshDim);
+        int triangleCount = coords.length / 4;
+        int parentCount = triangleCount - last * last;
+
+        float[] triangleErrors = new float[triangleCount];
+
+        // the smallest triangles first, so the errors of the children are known before their parents.
+        for (int i = triangleCount - 1; i >= 0; i--) {
+
+            int ax = coords[i * 4];
+            int az = coords[i * 4 + 1];
+            int bx = coords[i * 4 + 2];
+            int bz = coords[i * 4 + 3];
+
+            int mx = (ax + bx) >> 1;
+            int mz = (az + bz) >> 1;
+            int cx = mx + mz - az;
+            int cz = mz + ax - mx;
+
+            int middle = mz * meshDim + mx;
+
+            // how far the middle of the longest edge is from the edge.
+            float error = Math.abs((getHeight(ax, az) + getHeight(bx, bz)) * 0.5f - getHeight(mx, mz));
+
+            // the smallest triangles split into two halves of a quad, which have no heights inside them.
+            // a larger triangle is never further from a height than the half that covers it, plus how far the
+            // halves bend away from the triangle, which is never more than at the middle of its longest edge.
+            // the children of a triangle have a bit added to the id just below the leading bit.
+            int depth = 31 - Integer.numberOfLeadingZeros(i + 2);
+            int child = (i + 2) + (1 << depth) - 2;
+
+            if (i < parentCount) {
+                error += Math.max(triangleErrors[child], triangleErrors[child + (1 << depth)]);
+            }
+
+            triangleErrors[i] = error;
+
+            // a triangle that splits has to split the triangles its halves are split with.
+            if (i < parentCount) {
+                int left = ((az + cz) >> 1) * meshDim + ((ax + cx) >> 1);
+                int right = ((bz + cz) >> 1) * meshDim + ((bx + cx) >> 1);
+                error = Math.max(error, Math.max(errors[left], errors[right]));
+            }
+
+            errors[middle] = Math.max(errors[middle], error);
+        }
+    }
+
+    // a and b are the ends of the longest edge of the triangle, c is its right angle.
+    private void addTriangle(int ax, int az, int bx, int bz, int cx, int cz) {
+
+        int mx = (ax + bx) >> 1;
+        int mz = (az + bz) >> 1;
+
+        if (Math.abs(ax - cx) + Math.abs(az - cz) > 1 && errors[mz * meshDim + mx] > maxError) {
+            addTriangle(cx, cz, ax, az, mx, mz);
+            addTriangle(bx, bz, cx, cz, mx, mz);
+        }
+        else {
+            triangles[triangleCount * 3] = getVertexIndex(ax, az);
+            triangles[triangleCount * 3 + 1] = getVertexIndex(bx, bz);
+            triangles[triangleCount * 3 + 2] = getVertexIndex(cx, cz);
+            triangleCount++;
+        }
+    }
+
+    private int getVertexIndex(int col, int row) {
+
+        int vert = row * meshDim + col;
+
+        if (vertexIndices[vert] < 0) {
+            vertexIndices[vert] = vertexCount++;
+        }
+
+        return vertexIndices[vert];
+    }
+
+    private void buildVertices(FloatBuffer positions, FloatBuffer normals, FloatBuffer texCoords) {
+
+        for (int row = 0; row < meshDim; row++) {
+            for (int col = 0; col < meshDim; col++) {
+
+                int vert = vertexIndices[row * meshDim + col];
+
+                if (vert < 0) {
+                    continue;
+                }
+
+                int x = col * stride;
+                int z = row * stride;
+
+                positions.put(vert * 3, x);
+                positions.put(vert * 3 + 1, getHeightMapValue(x + 1, z + 1));
+                positions.put(vert * 3 + 2, z);
+
+                texCoords.put(vert * 2, x);
+                texCoords.put(vert * 2 + 1, z);
+
+                // the same normal as the heightmap mesh.
+                float nx = getHeightMapValue(x, z + 1) - getHeightMapValue(x + 2, z + 1);
+                float nz = getHeightMapValue(x + 1, z) - getHeightMapValue(x + 1, z + 2);
+                float length = FastMath.sqrt(nx * nx + 4 + nz * nz);
+
+                normals.put(vert * 3, nx / length);
+                normals.put(vert * 3 + 1, 2 / length);
+                normals.put(vert * 3 + 2, nz / length);
+            }
+        }
+    }
+
+    private void buildSkirt(FloatBuffer positions, FloatBuffer normals, FloatBuffer texCoords, float skirtDepth) {
+
+        int perimeter = SharedIndexBuffers.perimeterLength(meshDim);
+
+        // every edge vertex is used, so each one is given a copy that is moved down.
+        for (int i = 0; i < perimeter; i++) {
+
+            int vert = vertexIndices[SharedIndexBuffers.perimeterVertex(meshDim, i)];
+            int skirtVert = vertexCount + i;
+
+            positions.put(skirtVert * 3, positions.get(vert * 3));
+            positions.put(skirtVert * 3 + 1, positions.get(vert * 3 + 1) - skirtDepth);
+            positions.put(skirtVert * 3 + 2, positions.get(vert * 3 + 2));
+
+            normals.put(skirtVert * 3, normals.get(vert * 3));
+            normals.put(skirtVert * 3 + 1, normals.get(vert * 3 + 1));
+            normals.put(skirtVert * 3 + 2, normals.get(vert * 3 + 2));
+
+            texCoords.put(skirtVert * 2, texCoords.get(vert * 2));
+            texCoords.put(skirtVert * 2 + 1, texCoords.get(vert * 2 + 1));
+        }
+    }
+
+    // the same skirt triangles as the shared index buffers, using the vertex indices of this mesh.
+    private void addSkirtTriangles(int perimeter) {
+
+        int idx = triangleCount * 3;
+
+        for (int i = 0; i < perimeter; i++) {
+
+            int next = (i + 1) % perimeter;
+
+            int top = vertexIndices[SharedIndexBuffers.perimeterVertex(meshDim, i)];
+            int nextTop = vertexIndices[SharedIndexBuffers.perimeterVertex(meshDim, next)];
+
+            triangles[idx++] = top;
+            triangles[idx++] = nextTop;
+            triangles[idx++] = vertexCount + i;
+
+            triangles[idx++] = nextTop;
+            triangles[idx++] = vertexCount + next;
+            triangles[idx++] = vertexCount + i;
+        }
+    }
+
+    public int getLodLevel() {
+        return lodLevel;
+    }
+
+    public float getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Lets go of the buffers of this mesh. The mesh must not be used or rendered afterwards.
+     */
+    public void release() {
+
+        for (VertexBuffer vertexBuffer : getBufferList()) {
+
+            if (vertexBuffer.getData() != null) {
+                vertexBuffer.updateData(null);
+            }
+        }
+    }
+
+    private static int[] getTriangleCoordinates(int meshDim) {
+        return triangleCoordinates.computeIfAbsent(meshDim, SimplifiedHeightMapMesh::createTriangleCoordinates);
+    }
+
+    // the corners of the longest edge of every triangle, in the order the triangles are split.
+    // triangle i has the id i + 2: the two root triangles are 2 and 3. The bits of an id below its leading bit are the
+    // path to the triangle, read from the lowest bit up. A child moves the leading bit up one place and adds the bit
+    // it leaves behind to the path, so the children of id n with leading bit 2^d are n + 2^d and n + 2^(d + 1).
+    private static int[] createTriangleCoordinates(int meshDim) {
+
+        int size = meshDim - 1;
+        int triangleCount = size * size * 2 - 2;
+        int[] coords = new int[triangleCount * 4];
+
+        for (int i = 0; i < triangleCount; i++) {
+
+            int id = i + 2;
+            int ax = 0, az = 0, bx = 0, bz = 0, cx = 0, cz = 0;
+
+            if ((id & 1) == 1) {
+                bx = bz = cx = size;
+            }
+            else {
+                ax = az = cz = size;
+            }
+
+            while ((id >>= 1) > 1) {
+
+                int mx = (ax + bx) >> 1;
+                int mz = (az + bz) >> 1;
+
+                if ((id & 1) == 1) {
+                    bx = ax;
+                    bz = az;
+                    ax = cx;
+                    az = cz;
+                }
+                else {
+                    ax = bx;
+                    az = bz;
+                    bx = cx;
+                    bz = cz;
+                }
+
+                cx = mx;
+                cz = mz;
+            }
+
+            coords[i * 4] = ax;
+            coords[i * 4 + 1] = az;
+            coords[i * 4 + 2] = bx;
+            coords[i * 4 + 3] = bz;
+        }
+
+        return coords;
+    }
+
+    private float getHeight(int col, int row) {
+        return getHeightMapValue(col * stride + 1, row * stride + 1);
+    }
+
+    private float getHeightMapValue(int x, int z) {
+        return heightmap[(z * hmapDim) + x];
+    }
+
+}
@@ -1,35 +1,80 @@
 package com.jayfella.jme.worldpager.core;
 
-import com.jayfella.jme.worldpager.grid.GridCell;
-import com.jayfella.jme.worldpager.grid.SceneGrid;
-import com.jme3.scene.Node;
-
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
-public class ThreadedWorker implements Callable<ThreadedWorker> {
+/**
+ * Builds the payload of a single cell on a worker thread.
+ * @param <T> the type of payload.
+ */
+public class ThreadedWorker<T> implements Callable<ThreadedWorker<T>> {
 
     private final GridPos2i gridPos;
-    private final SceneGrid sceneGrid;
+    private final CellBuilder<T> builder;
+
+    private T result;
 
-    private Object[] data;
-    private GridCell gridCell;
+    private Future<ThreadedWorker<T>> future;
+    private volatile Throwable failure;
 
-    public ThreadedWorker(GridPos2i gridPos, SceneGrid sceneGrid) {
+    // abandoned workers are no longer required by the grid and their results are thrown away.
+    private volatile boolean started;
+    private volatile boolean abandoned;
+
+    public ThreadedWorker(GridPos2i gridPos, CellBuilder<T> builder) {
         this.gridPos = gridPos;
-        this.sceneGrid = sceneGrid;
+        this.builder = builder;
     }
 
-    public Object[] getData() { return data; }
-    public GridCell getGridCell() { return gridCell; }
+    public GridPos2i getGridPos() { return gridPos; }
+    public T getResult() { return result; }
+
+    public Future<ThreadedWorker<T>> getFuture() { return future; }
+    public void setFuture(Future<ThreadedWorker<T>> future) { this.future = future; }
+
+    public boolean isAbandoned() { return abandoned; }
+
+    /**
+     * Gets the exception that was thrown while building the cell.
+     * @return the exception thrown while building the cell, or null if the cell was built successfully.
+     */
+    public Throwable getFailure() { return failure; }
+    public void setFailure(Throwable failure) { this.failure = failure; }
+
+    /**
+     * Marks this worker as no longer required. If the worker has not started yet its task is cancelled and it will
+     * never build the cell. A worker that has started is left to finish and is still handed back, so whoever takes it
+     * can destroy its result.
+     * @return true if the cell was already being built, meaning the work done so far is wasted.
+     */
+    public boolean abandon() {
+
+        abandoned = true;
+
+        // a running task can still be cancelled, which would lose its result. If the task starts after this check it
+        // sees the flag and builds nothing.
+        if (started) {
+            return true;
+        }
+
+        if (future != null) {
+            future.cancel(false);
+        }
+
+        return false;
+    }
 
     @Override
-    public ThreadedWorker call() {
+    public ThreadedWorker<T> call() {
+
+        started = true;
 
-        Node cellNode = new Node("Cell: " + gridPos.toString());
-        cellNode.setLocalTranslation(gridPos.toWorldTranslation());
+        // the cell left the view before we got around to it.
+        if (abandoned) {
+            return this;
+        }
 
-        gridCell = new GridCell(gridPos, cellNode, sceneGrid);
-        data = sceneGrid.buildCell(gridPos);
+        result = builder.buildCell(gridPos);
 
         return this;
     }
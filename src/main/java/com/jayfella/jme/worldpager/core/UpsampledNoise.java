@@ -0,0 +1,230 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.math.Vector2f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A noise evaluator that sums a number of layers, sampling low-frequency layers on a coarse lattice and
+ * reconstructing them at full resolution with bicubic (Catmull-Rom) interpolation.
+ *
+ * Layers that change very little over a cell, such as continents, can be sampled every few world units instead of
+ * every unit. The lattice is aligned to world coordinates, so neighbouring cells interpolate the same lattice points
+ * and meet without seams. A layer with a stride of 1 is sampled at every point.
+ */
+public class UpsampledNoise extends NoiseEvaluator {
+
+    private final List<Layer> layers = new ArrayList<>();
+
+    // the lattice points of the per-point method. Not shared between instances, so layers may be nested.
+    private final ThreadLocal<Vector2f> latticePoint = ThreadLocal.withInitial(Vector2f::new);
+
+    /**
+     * Adds a layer that is sampled at every point.
+     * @param layer the noise to add.
+     */
+    public void addLayer(NoiseEvaluator layer) {
+        addLayer(layer, 1);
+    }
+
+    /**
+     * Adds a layer that is sampled on a lattice and interpolated in between.
+     * The larger the stride, the fewer samples are taken and the smoother the layer becomes.
+     * @param layer  the noise to add.
+     * @param stride the distance in world units between lattice points.
+     */
+    public void addLayer(NoiseEvaluator layer, int stride) {
+
+        if (stride < 1) {
+            throw new IllegalArgumentException("The stride of a layer must be at least 1.");
+        }
+
+        layers.add(new Layer(layer, stride));
+    }
+
+    /**
+     * Evaluates a single point. Each upsampled layer takes 4 * 4 lattice samples for every point, so regions should be
+     * sampled with {@link #evaluate(float[], float, float, float, int, int)} wherever possible.
+     */
+    @Override
+    public float evaluate(Vector2f loc) {
+
+        Vector2f point = null;
+        float result = 0;
+
+        for (Layer layer : layers) {
+
+            if (layer.stride == 1) {
+                result += layer.noise.evaluate(loc);
+                continue;
+            }
+
+            float fx = loc.x / layer.stride;
+            float fz = loc.y / layer.stride;
+
+            int ix = (int) Math.floor(fx);
+            int iz = (int) Math.floor(fz);
+
+            float tx = fx - ix;
+            float tz = fz - iz;
+
+            if (point == null) {
+                point = latticePoint.get();
+            }
+
+            float value = 0;
+
+            for (int j = 0; j < 4; j++) {
+
+                float row = 0;
+
+                for (int i = 0; i < 4; i++) {
+                    point.set((ix + i - 1) * layer.stride, (iz + j - 1) * layer.stride);
+                    row += weight(i, tx) * layer.noise.evaluate(point);
+                }
+
+                value += weight(j, tz) * row;
+            }
+
+            result += value;
+        }
+
+        return result;
+    }
+
+    @Override
+    public void evaluate(float[] dest, float originX, float originZ, float step, int width, int depth) {
+
+        int count = width * depth;
+
+        for (int i = 0; i < count; i++) {
+            dest[i] = 0;
+        }
+
+        float[] samples = null;
+
+        for (Layer layer : layers) {
+
+            if (layer.stride == 1) {
+
+                if (samples == null) {
+                    samples = new float[count];
+                }
+
+                layer.noise.evaluate(samples, originX, originZ, step, width, depth);
+
+                for (int i = 0; i < count; i++) {
+                    dest[i] += samples[i];
+                }
+            }
+            else {
+                addUpsampled(layer, dest, originX, originZ, step, width, depth);
+            }
+        }
+    }
+
+    private static void addUpsampled(Layer layer, float[] dest, float originX, float originZ, float step, int width, int depth) {
+
+        int stride = layer.stride;
+
+        // the lattice points around the region, plus one extra on each side for the cubic.
+        int latticeMinX = (int) Math.floor(originX / stride) - 1;
+        int latticeMinZ = (int) Math.floor(originZ / stride) - 1;
+        int latticeMaxX = (int) Math.floor((originX + (width - 1) * step) / stride) + 2;
+        int latticeMaxZ = (int) Math.floor((originZ + (depth - 1) * step) / stride) + 2;
+
+        int latticeWidth = latticeMaxX - latticeMinX + 1;
+        int latticeDepth = latticeMaxZ - latticeMinZ + 1;
+
+        float[] lattice = new float[latticeWidth * latticeDepth];
+        layer.noise.evaluate(lattice, latticeMinX * stride, latticeMinZ * stride, stride, latticeWidth, latticeDepth);
+
+        // the lattice column and weights of every sample along the x axis are the same for every row.
+        int[] columns = new int[width];
+        float[] weightsX = new float[width * 4];
+
+        for (int x = 0; x < width; x++) {
+
+            float fx = (originX + x * step) / stride;
+            int ix = (int) Math.floor(fx);
+
+            columns[x] = ix - 1 - latticeMinX;
+            weights(fx - ix, weightsX, x * 4);
+        }
+
+        // interpolate every lattice row along the x axis first, then each sample along the z axis.
+        float[] rows = new float[latticeDepth * width];
+
+        for (int j = 0; j < latticeDepth; j++) {
+
+            int latticeRow = j * latticeWidth;
+            int row = j * width;
+
+            for (int x = 0; x < width; x++) {
+
+                int index = latticeRow + columns[x];
+                int w = x * 4;
+
+                rows[row + x] = weightsX[w] * lattice[index]
+                        + weightsX[w + 1] * lattice[index + 1]
+                        + weightsX[w + 2] * lattice[index + 2]
+                        + weightsX[w + 3] * lattice[index + 3];
+            }
+        }
+
+        float[] weightsZ = new float[4];
+
+        for (int z = 0; z < depth; z++) {
+
+            float fz = (originZ + z * step) / stride;
+            int iz = (int) Math.floor(fz);
+
+            weights(fz - iz, weightsZ, 0);
+
+            int row0 = (iz - 1 - latticeMinZ) * width;
+            int row = z * width;
+
+            for (int x = 0; x < width; x++) {
+                dest[row + x] += weightsZ[0] * rows[row0 + x]
+                        + weightsZ[1] * rows[row0 + width + x]
+                        + weightsZ[2] * rows[row0 + width * 2 + x]
+                        + weightsZ[3] * rows[row0 + width * 3 + x];
+            }
+        }
+    }
+
+    /**
+     * The Catmull-Rom weight of the given lattice point, where points 1 and 2 surround the sample.
+     */
+    private static float weight(int point, float t) {
+
+        float t2 = t * t;
+        float t3 = t2 * t;
+
+        switch (point) {
+            case 0: return 0.5f * (-t + 2 * t2 - t3);
+            case 1: return 0.5f * (2 - 5 * t2 + 3 * t3);
+            case 2: return 0.5f * (t + 4 * t2 - 3 * t3);
+            default: return 0.5f * (-t2 + t3);
+        }
+    }
+
+    private static void weights(float t, float[] dest, int offset) {
+        for (int i = 0; i < 4; i++) {
+            dest[offset + i] = weight(i, t);
+        }
+    }
+
+    private static final class Layer {
+
+        private final NoiseEvaluator noise;
+        private final int stride;
+
+        private Layer(NoiseEvaluator noise, int stride) {
+            this.noise = noise;
+            this.stride = stride;
+        }
+    }
+
+}
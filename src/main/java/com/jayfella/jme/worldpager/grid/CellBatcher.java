@@ -0,0 +1,468 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.LongObjectMap;
+import com.jme3.math.Transform;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Mesh;
+import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+import jme3tools.optimize.GeometryBatchFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Merges blocks of far cells of a {@link SceneGrid} into batched geometries.
+ *
+ * The cells of a block are tracked as they are loaded and unloaded. Once every cell of a block is far enough from the
+ * followers and the block hasn't changed for a moment, the vertex data of its geometries is copied and the copies are
+ * batched on the world thread pool. Only a few blocks are copied each frame, so blocks that settle together are
+ * batched over several frames. The batch never reads the buffers of the cells, which belong to the renderer and are
+ * returned to a pool when a cell is destroyed.
+ *
+ * The batch replaces the cell nodes in the scene. The cells themselves are left untouched, so when a follower comes
+ * near or a cell of the block is loaded, unloaded or changed, the batch is thrown away and the cell nodes are put
+ * back. The block is batched again once it is quiet. When the batch size changes, every batch is thrown away and the
+ * cells are grouped into blocks of the new size.
+ *
+ * Every method must be called from the thread that ticks the grid.
+ */
+final class CellBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(CellBatcher.class);
+
+    // how long a block must go without changes before it is batched, in seconds.
+    private static final float SETTLE_TIME = 0.5f;
+
+    // the vertex data of a block is copied on the render thread, so only a few blocks are started each frame.
+    private static final int MAX_MERGES_PER_FRAME = 2;
+
+    private final SceneGrid grid;
+
+    private final LongObjectMap<Block> blocks = new LongObjectMap<>();
+    private final Queue<Merge> finishedMerges = new ConcurrentLinkedQueue<>();
+
+    // the batch size the blocks were grouped with.
+    private int blockSize;
+
+    private float time;
+    private int mergesStarted;
+    private int batchCount;
+    private int batchedCellCount;
+
+    CellBatcher(SceneGrid grid) {
+        this.grid = grid;
+        this.blockSize = Math.max(1, grid.getGridSettings().getBatchSize());
+    }
+
+    int getBatchCount() {
+        return batchCount;
+    }
+
+    int getBatchedCellCount() {
+        return batchedCellCount;
+    }
+
+    void cellAdded(GridCell cell) {
+
+        Block block = getBlock(cell.getGridPos(), true);
+        block.members.add(cell);
+        changed(block);
+    }
+
+    void cellRemoved(GridCell cell) {
+
+        Block block = getBlock(cell.getGridPos(), false);
+
+        // a cell that was detached is already gone from its block when it is destroyed.
+        if (block == null || !block.members.remove(cell)) {
+            return;
+        }
+
+        changed(block);
+
+        if (block.members.isEmpty() && !block.building) {
+            blocks.remove(block.pos.toKey());
+        }
+    }
+
+    void cellChanged(GridCell cell) {
+
+        Block block = getBlock(cell.getGridPos(), false);
+
+        if (block != null) {
+            changed(block);
+        }
+    }
+
+    void update(float tpf) {
+
+        time += tpf;
+
+        Merge merge;
+
+        while ((merge = finishedMerges.poll()) != null) {
+
+            Block block = merge.block;
+            block.building = false;
+
+            if (block.members.isEmpty()) {
+                // the block may have been loaded again since, as a new block.
+                if (blocks.get(block.pos.toKey()) == block) {
+                    blocks.remove(block.pos.toKey());
+                }
+            }
+            else if (merge.failure != null) {
+                log.error("Error batching block " + block.pos + " in grid " + grid.getName(), merge.failure);
+            }
+            else if (merge.version == block.version) {
+                applyMerge(block, merge);
+            }
+        }
+
+        int batchSize = grid.getGridSettings().getBatchSize();
+
+        if (Math.max(1, batchSize) != blockSize) {
+            regroup(Math.max(1, batchSize));
+        }
+
+        if (batchSize < 2) {
+            return;
+        }
+
+        int batchDistance = grid.getGridSettings().getBatchDistance();
+        mergesStarted = 0;
+
+        blocks.forEachValue(block -> {
+
+            boolean far = getFollowerDistance(block) >= batchDistance;
+
+            if (block.batchNode != null) {
+                if (!far) {
+                    split(block);
+                }
+            }
+            else if (far && !block.building && !block.unbatchable
+                    && block.members.size() > 1
+                    && time - block.changedTime >= SETTLE_TIME
+                    && mergesStarted < MAX_MERGES_PER_FRAME) {
+
+                // the rest of the blocks that are ready are started in the frames that follow.
+                mergesStarted++;
+                startMerge(block);
+            }
+        });
+    }
+
+    // the cells can no longer be found in blocks of the old size. Any batch being built is thrown away when it
+    // finishes, because its block has changed and is no longer in use.
+    private void regroup(int batchSize) {
+
+        List<GridCell> cells = new ArrayList<>();
+
+        blocks.forEachValue(block -> {
+            changed(block);
+            cells.addAll(block.members);
+            block.members.clear();
+        });
+
+        blocks.clear();
+        blockSize = batchSize;
+
+        for (GridCell cell : cells) {
+            Block block = getBlock(cell.getGridPos(), true);
+            block.members.add(cell);
+            changed(block);
+        }
+    }
+
+    private Block getBlock(GridPos2i cellPos, boolean create) {
+
+        int x = Math.floorDiv(cellPos.getX(), blockSize);
+        int z = Math.floorDiv(cellPos.getZ(), blockSize);
+        long key = GridPos2i.toKey(x, z);
+
+        Block block = blocks.get(key);
+
+        if (block == null && create) {
+            block = new Block(new GridPos2i(x, z, cellPos.getBitshift()));
+            blocks.put(key, block);
+        }
+
+        return block;
+    }
+
+    // any change puts the cells back and throws away the batch being built.
+    private void changed(Block block) {
+
+        block.version++;
+        block.changedTime = time;
+        block.unbatchable = false;
+
+        if (block.batchNode != null) {
+            split(block);
+        }
+    }
+
+    private int getFollowerDistance(Block block) {
+
+        int distance = Integer.MAX_VALUE;
+
+        for (GridCell cell : block.members) {
+            GridPos2i pos = cell.getGridPos();
+            distance = Math.min(distance, grid.getPager().getFollowerDistance(pos.getX(), pos.getZ()));
+        }
+
+        return distance;
+    }
+
+    private void startMerge(Block block) {
+
+        Node gridNode = grid.getGridNode();
+
+        List<GridCell> cells = new ArrayList<>();
+        List<Geometry> copies = new ArrayList<>();
+
+        for (GridCell cell : block.members) {
+
+            // cells with nothing to show are never attached.
+            if (cell.getCellNode().getParent() != gridNode) {
+                continue;
+            }
+
+            cells.add(cell);
+
+            cell.getCellNode().depthFirstTraversal(new SceneGraphVisitorAdapter() {
+                @Override
+                public void visit(Geometry geometry) {
+
+                    if (block.unbatchable) {
+                        return;
+                    }
+
+                    VertexBuffer positions = geometry.getMesh().getBuffer(VertexBuffer.Type.Position);
+
+                    if (positions == null || positions.getData() == null
+                            || positions.getFormat() != VertexBuffer.Format.Float) {
+                        block.unbatchable = true;
+                        return;
+                    }
+
+                    Mesh mesh = copyMesh(geometry.getMesh());
+
+                    if (mesh == null) {
+                        block.unbatchable = true;
+                        return;
+                    }
+
+                    // a copy with its own vertex data, placed relative to the grid node.
+                    Transform transform = geometry.getLocalTransform().clone();
+
+                    for (Spatial parent = geometry.getParent(); parent != gridNode; parent = parent.getParent()) {
+                        transform.combineWithParent(parent.getLocalTransform());
+                    }
+
+                    Geometry copy = geometry.clone(false);
+                    copy.setMesh(mesh);
+                    copy.setLocalTransform(transform);
+                    copies.add(copy);
+                }
+            });
+        }
+
+        // compact meshes can't be merged, and a single cell gains nothing.
+        if (block.unbatchable || cells.size() < 2) {
+            block.unbatchable = true;
+            return;
+        }
+
+        block.building = true;
+        int version = block.version;
+
+        grid.getWorld().getThreadPool().execute(() -> {
+            try {
+                finishedMerges.add(new Merge(block, version, cells, createBatch(block.pos, copies), null));
+            }
+            catch (Throwable t) {
+                finishedMerges.add(new Merge(block, version, cells, null, t));
+            }
+        });
+    }
+
+    // copies the vertex data to the heap. The batch is built from the copies, so it never moves the position or limit
+    // of a buffer the renderer uses, or reads a buffer that has gone back to the pool. Null if the mesh can't be
+    // copied.
+    private static Mesh copyMesh(Mesh mesh) {
+
+        Mesh copy = new Mesh();
+        copy.setMode(mesh.getMode());
+
+        for (VertexBuffer source : mesh.getBufferList()) {
+
+            if (source.getData() == null) {
+                continue;
+            }
+
+            Buffer data = copyData(source.getData());
+
+            if (data == null) {
+                return null;
+            }
+
+            VertexBuffer buffer = new VertexBuffer(source.getBufferType());
+            buffer.setupData(source.getUsage(), source.getNumComponents(), source.getFormat(), data);
+            buffer.setNormalized(source.isNormalized());
+
+            copy.setBuffer(buffer);
+        }
+
+        return copy;
+    }
+
+    // reads through a duplicate, which has a position and limit of its own. Null if the buffer type can't be copied.
+    private static Buffer copyData(Buffer data) {
+
+        if (data instanceof FloatBuffer) {
+            FloatBuffer source = ((FloatBuffer) data).duplicate();
+            source.rewind();
+            FloatBuffer copy = FloatBuffer.allocate(source.remaining());
+            copy.put(source).flip();
+            return copy;
+        }
+        else if (data instanceof IntBuffer) {
+            IntBuffer source = ((IntBuffer) data).duplicate();
+            source.rewind();
+            IntBuffer copy = IntBuffer.allocate(source.remaining());
+            copy.put(source).flip();
+            return copy;
+        }
+        else if (data instanceof ShortBuffer) {
+            ShortBuffer source = ((ShortBuffer) data).duplicate();
+            source.rewind();
+            ShortBuffer copy = ShortBuffer.allocate(source.remaining());
+            copy.put(source).flip();
+            return copy;
+        }
+        else if (data instanceof ByteBuffer) {
+            ByteBuffer source = ((ByteBuffer) data).duplicate();
+            source.rewind();
+            ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+            copy.put(source).flip();
+            return copy;
+        }
+
+        return null;
+    }
+
+    private static Node createBatch(GridPos2i blockPos, List<Geometry> copies) {
+
+        // the copies aren't in the scene, so their world transforms are worked out here.
+        Map<Object, Geometry> templates = new HashMap<>();
+
+        for (Geometry copy : copies) {
+            copy.updateGeometricState();
+            templates.putIfAbsent(copy.getMaterial(), copy);
+        }
+
+        Node batchNode = new Node("Batch: " + blockPos);
+
+        for (Geometry batch : GeometryBatchFactory.makeBatches(copies)) {
+
+            // sprites are drawn in their own bucket without shadows, so the batch must be too.
+            Geometry template = templates.get(batch.getMaterial());
+
+            if (template != null) {
+                batch.setQueueBucket(template.getLocalQueueBucket());
+                batch.setShadowMode(template.getLocalShadowMode());
+            }
+
+            batchNode.attachChild(batch);
+        }
+
+        return batchNode;
+    }
+
+    private void applyMerge(Block block, Merge merge) {
+
+        for (GridCell cell : merge.cells) {
+            cell.getCellNode().removeFromParent();
+        }
+
+        grid.getGridNode().attachChild(merge.batchNode);
+
+        block.batchNode = merge.batchNode;
+        block.batchedCells = merge.cells;
+
+        batchCount++;
+        batchedCellCount += merge.cells.size();
+    }
+
+    private void split(Block block) {
+
+        block.batchNode.removeFromParent();
+
+        for (GridCell cell : block.batchedCells) {
+            if (!cell.isDestroyed()) {
+                grid.getGridNode().attachChild(cell.getCellNode());
+            }
+        }
+
+        batchCount--;
+        batchedCellCount -= block.batchedCells.size();
+
+        block.batchNode = null;
+        block.batchedCells = null;
+    }
+
+    private static final class Block {
+
+        private final GridPos2i pos;
+        private final List<GridCell> members = new ArrayList<>();
+
+        // changed every time a cell of the block is loaded, unloaded or changed.
+        private int version;
+        private float changedTime;
+
+        private boolean building;
+        private boolean unbatchable;
+
+        private Node batchNode;
+        private List<GridCell> batchedCells;
+
+        private Block(GridPos2i pos) {
+            this.pos = pos;
+        }
+    }
+
+    private static final class Merge {
+
+        private final Block block;
+        private final int version;
+        private final List<GridCell> cells;
+        private final Node batchNode;
+        private final Throwable failure;
+
+        private Merge(Block block, int version, List<GridCell> cells, Node batchNode, Throwable failure) {
+            this.block = block;
+            this.version = version;
+            this.cells = cells;
+            this.batchNode = batchNode;
+            this.failure = failure;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.LongObjectMap;
+
+/**
+ * A bounded cache of detached grid cells, keyed by their packed grid position.
+ * When the cache exceeds its cell count or memory limit, the least recently cached cells are destroyed.
+ *
+ * @param <T> the type of cell payload.
+ */
+class CellCache<T> {
+
+    private final CellHandler<T> handler;
+    private final LongObjectMap<Entry<T>> entries = new LongObjectMap<>();
+
+    // a doubly linked list in order of use. The head is the least recently used.
+    private Entry<T> head, tail;
+
+    private long bytes;
+
+    private int maxCells;
+    private long maxBytes;
+
+    private long hits, misses;
+
+    CellCache(CellHandler<T> handler) {
+        this.handler = handler;
+    }
+
+    void setLimits(int maxCells, long maxBytes) {
+        this.maxCells = maxCells;
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    boolean isEnabled() {
+        return maxCells > 0;
+    }
+
+    /**
+     * Adds a detached cell to the cache, destroying the least recently used cells if the cache is full.
+     * @param key  the packed grid position of the cell.
+     * @param cell the detached cell.
+     */
+    void put(long key, T cell) {
+
+        Entry<T> entry = new Entry<>(key, cell, handler.getCellBytes(cell));
+
+        Entry<T> old = entries.put(key, entry);
+
+        if (old != null) {
+            unlink(old);
+            handler.destroyCell(old.cell);
+        }
+
+        // newest goes at the tail.
+        entry.prev = tail;
+
+        if (tail != null) {
+            tail.next = entry;
+        }
+        else {
+            head = entry;
+        }
+
+        tail = entry;
+        bytes += entry.bytes;
+
+        evict();
+    }
+
+    /**
+     * Removes a cell from the cache and records whether or not it was there.
+     * @param key the packed grid position of the cell.
+     * @return the cached cell, or null if the cell was not cached.
+     */
+    T take(long key) {
+
+        Entry<T> entry = entries.remove(key);
+
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        unlink(entry);
+        return entry.cell;
+    }
+
+    /**
+     * Destroys every cached cell.
+     */
+    void clear() {
+
+        for (Entry<T> entry = head; entry != null; entry = entry.next) {
+            handler.destroyCell(entry.cell);
+        }
+
+        entries.clear();
+        head = tail = null;
+        bytes = 0;
+    }
+
+    private void evict() {
+        while (head != null && (entries.size() > maxCells || (maxBytes > 0 && bytes > maxBytes))) {
+            Entry<T> eldest = head;
+            entries.remove(eldest.key);
+            unlink(eldest);
+            handler.destroyCell(eldest.cell);
+        }
+    }
+
+    private void unlink(Entry<T> entry) {
+
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        }
+        else {
+            head = entry.next;
+        }
+
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        else {
+            tail = entry.prev;
+        }
+
+        entry.prev = entry.next = null;
+        bytes -= entry.bytes;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getHits() {
+        return hits;
+    }
+
+    long getMisses() {
+        return misses;
+    }
+
+    private static final class Entry<T> {
+
+        private final long key;
+        private final T cell;
+        private final long bytes;
+
+        private Entry<T> prev, next;
+
+        private Entry(long key, T cell, long bytes) {
+            this.key = key;
+            this.cell = cell;
+            this.bytes = bytes;
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.CellBuilder;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+
+/**
+ * Builds, applies and destroys the payloads of a {@link CellPager}.
+ * Payloads are built on a worker thread. Every other method is called from the thread that ticks the pager.
+ *
+ * @param <T> the type of payload.
+ */
+public interface CellHandler<T> extends CellBuilder<T> {
+
+    /**
+     * Called when a cell has been built and is now loaded.
+     * @param gridPos the grid position of the cell.
+     * @param cell    the payload of the cell.
+     */
+    void applyCell(GridPos2i gridPos, T cell);
+
+    /**
+     * Called when a cell is no longer required and will never be used again.
+     * @param cell the payload of the cell.
+     */
+    void destroyCell(T cell);
+
+    /**
+     * Called when a cell was built after it was no longer required. The cell was never applied.
+     * @param cell the payload of the cell.
+     */
+    default void discardCell(T cell) { }
+
+    /**
+     * Called when an exception was thrown while building a cell. The cell is not loaded, and will be requested again
+     * the next time it comes into view.
+     * @param gridPos the grid position of the cell that failed.
+     * @param failure the exception that was thrown.
+     */
+    void cellFailed(GridPos2i gridPos, Throwable failure);
+
+    /**
+     * Called when a cell is unloaded but kept in the cache in case it comes back into view.
+     * @param cell the payload of the cell.
+     */
+    default void detachCell(T cell) { }
+
+    /**
+     * Called when a cached cell comes back into view and is loaded again.
+     * @param cell the payload of the cell.
+     */
+    default void reattachCell(T cell) { }
+
+    /**
+     * Gets an estimate of the memory used by a cell. Used to limit the memory of the cache.
+     * @param cell the payload of the cell.
+     * @return the amount of bytes used by the cell.
+     */
+    default long getCellBytes(T cell) { return 0; }
+
+}
@@ -0,0 +1,256 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jme3.math.Vector3f;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.NoSuchElementException;
+import java.util.function.LongPredicate;
+
+/**
+ * A queue of packed grid positions waiting to be loaded, ordered by their ring distance from the nearest origin cell.
+ * Cells in the direction a follower is looking are favored over cells behind it.
+ *
+ * Priorities are calculated when a position is added and only change when the origin is moved.
+ */
+class CellLoadQueue {
+
+    private long[] positions = new long[64];
+    private float[] priorities = new float[64];
+    private int size;
+
+    // one origin per follower. A position takes the priority of the origin it is closest to.
+    private int[] originX = new int[1];
+    private int[] originZ = new int[1];
+    private float[] dirX = new float[1];
+    private float[] dirZ = new float[1];
+    private int origins;
+    private float directionWeight;
+
+    /**
+     * Moves the origin of the queue and re-orders every waiting position relative to the new origin.
+     * @param origin       the grid position that has the highest priority.
+     * @param direction    the direction the follower is looking. Only the x and z planes are used.
+     * @param weight       how much a cell behind the follower is penalized. Zero disables directional priority.
+     */
+    void setOrigin(GridPos2i origin, Vector3f direction, float weight) {
+
+        origins = 0;
+        addOrigin(origin, direction);
+
+        this.directionWeight = weight;
+        reorder();
+    }
+
+    /**
+     * Sets an origin for every follower and re-orders every waiting position. Each position is ordered by the
+     * follower that would see it soonest.
+     * @param views  the followers of the grid.
+     * @param weight how much a cell behind a follower is penalized. Zero disables directional priority.
+     */
+    void setOrigins(Collection<FollowerView> views, float weight) {
+
+        origins = 0;
+
+        for (FollowerView view : views) {
+            addOrigin(view.getGridPos(), view.getPriorityDirection());
+        }
+
+        this.directionWeight = weight;
+        reorder();
+    }
+
+    private void addOrigin(GridPos2i origin, Vector3f direction) {
+
+        if (origins == originX.length) {
+            originX = Arrays.copyOf(originX, origins << 1);
+            originZ = Arrays.copyOf(originZ, origins << 1);
+            dirX = Arrays.copyOf(dirX, origins << 1);
+            dirZ = Arrays.copyOf(dirZ, origins << 1);
+        }
+
+        originX[origins] = origin.getX();
+        originZ[origins] = origin.getZ();
+
+        float length = (float) Math.sqrt(direction.x * direction.x + direction.z * direction.z);
+
+        if (length > 0) {
+            dirX[origins] = direction.x / length;
+            dirZ[origins] = direction.z / length;
+        }
+        else {
+            dirX[origins] = dirZ[origins] = 0;
+        }
+
+        origins++;
+    }
+
+    private void reorder() {
+
+        // re-calculate and re-heapify.
+        for (int i = 0; i < size; i++) {
+            priorities[i] = calculatePriority(positions[i]);
+        }
+
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    private float calculatePriority(long key) {
+
+        if (origins == 0) {
+            return 0;
+        }
+
+        float priority = Float.MAX_VALUE;
+
+        for (int i = 0; i < origins; i++) {
+            priority = Math.min(priority, calculatePriority(key, i));
+        }
+
+        return priority;
+    }
+
+    private float calculatePriority(long key, int origin) {
+
+        int dx = GridPos2i.keyToX(key) - originX[origin];
+        int dz = GridPos2i.keyToZ(key) - originZ[origin];
+
+        int ring = Math.max(Math.abs(dx), Math.abs(dz));
+
+        if (ring == 0 || directionWeight == 0 || (dirX[origin] == 0 && dirZ[origin] == 0)) {
+            return ring;
+        }
+
+        // 1 when the cell is directly in front, 0 when directly behind.
+        float cos = (dx * dirX[origin] + dz * dirZ[origin]) / (float) Math.sqrt(dx * dx + dz * dz);
+        float facing = (cos + 1) * 0.5f;
+
+        return ring + ring * directionWeight * (1 - facing);
+    }
+
+    /**
+     * Removes every position that matches the given filter.
+     * @param filter the filter that determines which positions are removed.
+     */
+    void removeIf(LongPredicate filter) {
+
+        int kept = 0;
+
+        for (int i = 0; i < size; i++) {
+            if (!filter.test(positions[i])) {
+                positions[kept] = positions[i];
+                priorities[kept] = priorities[i];
+                kept++;
+            }
+        }
+
+        size = kept;
+
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    void add(long key) {
+
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size << 1);
+            priorities = Arrays.copyOf(priorities, size << 1);
+        }
+
+        positions[size] = key;
+        priorities[size] = calculatePriority(key);
+        siftUp(size++);
+    }
+
+    /**
+     * Removes and returns the position with the highest priority.
+     * @return the packed position with the highest priority.
+     * @throws NoSuchElementException if the queue is empty.
+     */
+    long poll() {
+
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+
+        long result = positions[0];
+
+        size--;
+        positions[0] = positions[size];
+        priorities[0] = priorities[size];
+
+        if (size > 0) {
+            siftDown(0);
+        }
+
+        return result;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+
+        long pos = positions[index];
+        float priority = priorities[index];
+
+        while (index > 0) {
+
+            int parent = (index - 1) >>> 1;
+
+            if (priorities[parent] <= priority) {
+                break;
+            }
+
+            positions[index] = positions[parent];
+            priorities[index] = priorities[parent];
+            index = parent;
+        }
+
+        positions[index] = pos;
+        priorities[index] = priority;
+    }
+
+    private void siftDown(int index) {
+
+        long pos = positions[index];
+        float priority = priorities[index];
+
+        int half = size >>> 1;
+
+        while (index < half) {
+
+            int child = (index << 1) + 1;
+            int right = child + 1;
+
+            if (right < size && priorities[right] < priorities[child]) {
+                child = right;
+            }
+
+            if (priority <= priorities[child]) {
+                break;
+            }
+
+            positions[index] = positions[child];
+            priorities[index] = priorities[child];
+            index = child;
+        }
+
+        positions[index] = pos;
+        priorities[index] = priority;
+    }
+
+}
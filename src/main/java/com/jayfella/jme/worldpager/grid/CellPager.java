@@ -0,0 +1,657 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.CellCompletionService;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.GridSettings;
+import com.jayfella.jme.worldpager.core.LongIntMap;
+import com.jayfella.jme.worldpager.core.LongObjectMap;
+import com.jayfella.jme.worldpager.core.LongSet;
+import com.jayfella.jme.worldpager.core.ThreadedWorker;
+import com.jayfella.jme.worldpager.world.Follower;
+import com.jme3.math.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+
+/**
+ * Pages cells in and out around a set of followers without any dependency on the scene graph.
+ *
+ * Cells that come into view are built on the given executor, handed back to the thread that calls {@link #tick()}
+ * and applied. Cells that leave the view are destroyed, or cached if the grid settings enable the cell cache.
+ * What a cell actually is, and what it means to apply or destroy it, is decided by the {@link CellHandler}.
+ *
+ * Every method other than {@link CellHandler#buildCell(GridPos2i)} must be called from a single thread, such as the
+ * render thread of a {@link SceneGrid} or the loop of a headless server.
+ *
+ * @param <T> the type of payload of each cell.
+ */
+public class CellPager<T> {
+
+    private final CellHandler<T> handler;
+    private final CellCompletionService<T> completionService;
+    private final int parallelism;
+
+    // cells are keyed by their packed grid position.
+    private final LongObjectMap<T> loadedCells = new LongObjectMap<>();
+    private final CellLoadQueue cellAdditions = new CellLoadQueue();
+    private final LongSet cellRemovals = new LongSet();
+
+    // cells that have left the view but may come back.
+    private final CellCache<T> cellCache;
+
+    // the region of cells each follower requires. Cells are reference-counted by the amount of followers that
+    // can see them, so a cell shared by many followers is only built once.
+    private final Map<Follower, FollowerView> views = new IdentityHashMap<>();
+    private final LongIntMap requiredCells = new LongIntMap();
+    private final List<Follower> followers = new ArrayList<>();
+    private int viewStamp = 0;
+    private int viewVersion = 0;
+
+    // the follower used when the pager is located directly instead of by the world.
+    private final Follower localFollower = new Follower();
+    private final List<Follower> localFollowers = Collections.singletonList(localFollower);
+
+    private final CellVisitor cellEntered = this::cellEntered;
+    private final CellVisitor cellLeft = this::cellLeft;
+    private final LongPredicate outOfView = key -> !requiredCells.containsKey(key);
+
+    private final LongObjectMap<ThreadedWorker<T>> loadingCells = new LongObjectMap<>();
+
+    // builds that were abandoned because their cell left the view.
+    private long cancelledBuilds = 0; // abandoned before they started.
+    private long discardedBuilds = 0; // abandoned after they started. The work was wasted.
+    private long failedBuilds = 0;
+
+    // keep a count of how many cells we've added and removed per-tick.
+    private int removalIterations = 0;
+    private int additionIterations = 0;
+
+    // if set, the amount of time in milliseconds we can spend per-tick instead of using counts.
+    private float frameAllowance = 0;
+    private long budgetDebt = 0;
+
+    private final GridSettings gridSettings;
+
+    /**
+     * Creates a cell pager.
+     * @param executor     the executor that builds the cells.
+     * @param parallelism  the amount of threads of the executor.
+     * @param gridSettings the settings that determine which cells are in view.
+     * @param handler      builds, applies and destroys the cells.
+     */
+    public CellPager(Executor executor, int parallelism, GridSettings gridSettings, CellHandler<T> handler) {
+        this.handler = handler;
+        this.completionService = new CellCompletionService<>(executor);
+        this.parallelism = parallelism;
+        this.gridSettings = gridSettings;
+        this.cellCache = new CellCache<>(handler);
+    }
+
+    public GridSettings getGridSettings() {
+        return gridSettings;
+    }
+
+    /**
+     * Destroys every cell and loads them all again. This must be called if the cell size changes.
+     */
+    public void refresh() {
+
+        // destroy all cells.
+        loadedCells.forEachValue(handler::destroyCell);
+
+        // clear the list of loaded cells.
+        loadedCells.clear();
+
+        // cached cells may be the wrong size now.
+        cellCache.clear();
+
+        // any cells that are still being built are the wrong size now.
+        loadingCells.forEachValue(this::abandonWorker);
+        loadingCells.clear();
+
+        // every view needs to be re-created as the cell size may have changed prior to this call.
+        views.clear();
+        requiredCells.clear();
+        cellAdditions.clear();
+        cellRemovals.clear();
+
+        // set the followers, forcing a reload to begin loading the cells.
+        setFollowers(new ArrayList<>(followers), true);
+    }
+
+    /**
+     * Re-visits the view of every follower. This must be called if the view distance changes.
+     */
+    public void refreshViewDistance() {
+        setFollowers(new ArrayList<>(followers), true);
+    }
+
+    /**
+     * Gets the follower that is moved by {@link #setLocation(Vector3f)}.
+     * @return the follower owned by this pager.
+     */
+    public Follower getLocalFollower() {
+        return localFollower;
+    }
+
+    public void setLocation(Vector3f location) {
+        setLocation(location, false);
+    }
+
+    /**
+     * Loads the cells around a single location. Any followers set previously are released.
+     * @param location    the location to load cells around.
+     * @param forceUpdate whether or not to re-visit every cell even if the location has not changed.
+     */
+    public void setLocation(Vector3f location, boolean forceUpdate) {
+        localFollower.setLocation(location);
+        setFollowers(localFollowers, forceUpdate);
+    }
+
+    /**
+     * Gets the followers the pager is currently loading cells around.
+     * @return the followers of the pager.
+     */
+    public List<Follower> getFollowers() {
+        return Collections.unmodifiableList(followers);
+    }
+
+    public void setFollowers(List<Follower> followers) {
+        setFollowers(followers, false);
+    }
+
+    /**
+     * Loads the cells that are in view of any of the given followers. A cell is only built once regardless of how
+     * many followers can see it, and is only removed when no follower can see it. Cells are loaded in order of their
+     * distance from the nearest follower. Followers that were set previously but are not in the given list are
+     * released.
+     * @param followers   the followers to load cells around.
+     * @param forceUpdate whether or not to re-visit every cell even if no follower has moved.
+     */
+    public void setFollowers(List<Follower> followers, boolean forceUpdate) {
+
+        viewStamp++;
+
+        boolean changed = false;
+
+        for (int i = 0; i < followers.size(); i++) {
+
+            Follower follower = followers.get(i);
+            FollowerView view = views.get(follower);
+
+            if (view == null) {
+                view = new FollowerView(follower, gridSettings.getCellSize().getBitshift());
+                views.put(follower, view);
+            }
+
+            view.setStamp(viewStamp);
+
+            if (view.update(gridSettings, forceUpdate)) {
+                moveView(view, forceUpdate);
+                changed = true;
+            }
+        }
+
+        // release the cells of any followers that have gone.
+        if (views.size() != followers.size()) {
+
+            Iterator<FollowerView> iterator = views.values().iterator();
+
+            while (iterator.hasNext()) {
+
+                FollowerView view = iterator.next();
+
+                if (view.getStamp() != viewStamp) {
+                    iterator.remove();
+                    forEachCell(view.getMinX(), view.getMaxX(), view.getMinZ(), view.getMaxZ(), cellLeft);
+                    changed = true;
+                }
+            }
+        }
+
+        if (this.followers != followers) {
+            this.followers.clear();
+            this.followers.addAll(followers);
+        }
+
+        if (changed) {
+            viewVersion++;
+
+            // order the cells by distance from the nearest follower, favoring the direction they are travelling if
+            // we are prefetching, else the direction they are looking.
+            // anything still waiting that is no longer in view is dropped.
+            cellAdditions.removeIf(outOfView);
+            cellAdditions.setOrigins(views.values(), gridSettings.getDirectionalPriority());
+        }
+    }
+
+    private void moveView(FollowerView view, boolean forceUpdate) {
+
+        if (!view.isPrevValid()) {
+            forEachCell(view.getMinX(), view.getMaxX(), view.getMinZ(), view.getMaxZ(), cellEntered);
+        }
+        else if (forceUpdate) {
+            // the view distance may have changed, so the regions may not overlap in the usual way.
+            // enter the new region before leaving the old one so shared cells never reach a count of zero.
+            forEachCell(view.getMinX(), view.getMaxX(), view.getMinZ(), view.getMaxZ(), cellEntered);
+            forEachCell(view.getPrevMinX(), view.getPrevMaxX(), view.getPrevMinZ(), view.getPrevMaxZ(), cellLeft);
+        }
+        else {
+            // only visit the strips of cells that actually entered or left the view.
+            forEachCellDifference(view.getMinX(), view.getMaxX(), view.getMinZ(), view.getMaxZ(),
+                    view.getPrevMinX(), view.getPrevMaxX(), view.getPrevMinZ(), view.getPrevMaxZ(), cellEntered);
+
+            forEachCellDifference(view.getPrevMinX(), view.getPrevMaxX(), view.getPrevMinZ(), view.getPrevMaxZ(),
+                    view.getMinX(), view.getMaxX(), view.getMinZ(), view.getMaxZ(), cellLeft);
+        }
+    }
+
+    private void cellEntered(int x, int z) {
+
+        long key = GridPos2i.toKey(x, z);
+
+        // only the first follower to see the cell requests it.
+        // the method that processes this list will not load any cells that already exist.
+        if (requiredCells.increment(key) == 1 && !loadedCells.containsKey(key) && !loadingCells.containsKey(key)) {
+            cellAdditions.add(key);
+        }
+    }
+
+    private void cellLeft(int x, int z) {
+
+        long key = GridPos2i.toKey(x, z);
+
+        // another follower can still see the cell.
+        if (requiredCells.decrement(key) > 0) {
+            return;
+        }
+
+        if (loadedCells.containsKey(key)) {
+            cellRemovals.add(key);
+        }
+
+        // cancel the cell if it's still being built.
+        ThreadedWorker<T> worker = loadingCells.remove(key);
+
+        if (worker != null) {
+            abandonWorker(worker);
+        }
+    }
+
+    /**
+     * Visits every cell in the given region.
+     */
+    private static void forEachCell(int minX, int maxX, int minZ, int maxZ, CellVisitor visitor) {
+        for (int x = minX; x <= maxX; x++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                visitor.visit(x, z);
+            }
+        }
+    }
+
+    /**
+     * Visits every cell in region A that is not in region B.
+     * Only the strips of region A that lie outside of region B are iterated.
+     */
+    private static void forEachCellDifference(int aMinX, int aMaxX, int aMinZ, int aMaxZ,
+                                              int bMinX, int bMaxX, int bMinZ, int bMaxZ,
+                                              CellVisitor visitor) {
+
+        for (int x = aMinX; x <= aMaxX; x++) {
+
+            if (x < bMinX || x > bMaxX) {
+                // this column is entirely outside of region B.
+                for (int z = aMinZ; z <= aMaxZ; z++) {
+                    visitor.visit(x, z);
+                }
+            }
+            else {
+                // only the parts of this column above and below region B.
+                for (int z = aMinZ, end = Math.min(aMaxZ, bMinZ - 1); z <= end; z++) {
+                    visitor.visit(x, z);
+                }
+
+                for (int z = Math.max(aMinZ, bMaxZ + 1); z <= aMaxZ; z++) {
+                    visitor.visit(x, z);
+                }
+            }
+        }
+    }
+
+    private boolean isInView(long key) {
+        return requiredCells.containsKey(key);
+    }
+
+    private void abandonWorker(ThreadedWorker<T> worker) {
+
+        if (worker.abandon()) {
+            discardedBuilds++;
+        }
+        else {
+            cancelledBuilds++;
+        }
+    }
+
+    /**
+     * Gets a number that changes whenever a follower moves into another cell, or a follower is added or removed.
+     * @return the version of the follower views.
+     */
+    public int getViewVersion() {
+        return viewVersion;
+    }
+
+    /**
+     * Gets the distance in cells from the given cell to the cell of the nearest follower. The distance is the ring
+     * around the follower the cell is in, so the cells next to a follower, including diagonally, are one cell away.
+     * @param x the x position of the cell in grid cells.
+     * @param z the z position of the cell in grid cells.
+     * @return the distance to the nearest follower, or Integer.MAX_VALUE if there are no followers.
+     */
+    public int getFollowerDistance(int x, int z) {
+
+        int distance = Integer.MAX_VALUE;
+
+        for (FollowerView view : views.values()) {
+            GridPos2i gridPos = view.getGridPos();
+            distance = Math.min(distance, Math.max(Math.abs(x - gridPos.getX()), Math.abs(z - gridPos.getZ())));
+        }
+
+        return distance;
+    }
+
+    public T getLoadedCell(GridPos2i gridPos) {
+        return loadedCells.get(gridPos.toKey());
+    }
+
+    /**
+     * Visits the payload of every loaded cell.
+     * @param action the action to perform on each cell.
+     */
+    public void forEachLoadedCell(Consumer<T> action) {
+        loadedCells.forEachValue(action);
+    }
+
+    public int getLoadedCellCount() {
+        return loadedCells.size();
+    }
+
+    public int getAwaitingAdditions() {
+        return this.cellAdditions.size();
+    }
+
+    /**
+     * Gets the amount of cell builds that were cancelled before they started because the cell left the view.
+     * @return the amount of builds that were avoided.
+     */
+    public long getCancelledBuildCount() {
+        return cancelledBuilds;
+    }
+
+    /**
+     * Gets the amount of cell builds that had already started when the cell left the view.
+     * The result of these builds was thrown away.
+     * @return the amount of builds that were wasted.
+     */
+    public long getDiscardedBuildCount() {
+        return discardedBuilds;
+    }
+
+    /**
+     * Gets the amount of cell builds that threw an exception.
+     * @return the amount of builds that failed.
+     */
+    public long getFailedBuildCount() {
+        return failedBuilds;
+    }
+
+    /**
+     * Gets the amount of cells that came back into view and were taken from the cache instead of being built.
+     * @return the amount of cache hits.
+     */
+    public long getCacheHits() {
+        return cellCache.getHits();
+    }
+
+    /**
+     * Gets the amount of cells that came into view and were not in the cache.
+     * Only counted while the cache is enabled.
+     * @return the amount of cache misses.
+     */
+    public long getCacheMisses() {
+        return cellCache.getMisses();
+    }
+
+    /**
+     * Gets the ratio of cells that were taken from the cache instead of being built.
+     * @return the cache hit rate between 0 and 1.
+     */
+    public float getCacheHitRate() {
+        long total = cellCache.getHits() + cellCache.getMisses();
+        return total == 0 ? 0 : (float) cellCache.getHits() / total;
+    }
+
+    public int getCachedCellCount() {
+        return cellCache.size();
+    }
+
+    public long getCachedBytes() {
+        return cellCache.getBytes();
+    }
+
+    /**
+     * Applies finished cells, removes cells that left the view and submits cells that came into view.
+     * Limited by the per-frame counts of the grid settings, or by the allowance if one is set.
+     * Call this once per frame, or once per iteration of a server loop.
+     */
+    public void tick() {
+
+        cellCache.setLimits(gridSettings.getCacheSize(), gridSettings.getCacheMemory());
+
+        if (frameAllowance > 0) {
+            tickBudgeted();
+            return;
+        }
+
+        updateThreadpool(0);
+
+        while (!cellRemovals.isEmpty()) {
+
+            // only iterate if we've actually removed a cell.
+            if (removeCell(cellRemovals.removeAny())) {
+                removalIterations++;
+            }
+
+            // if we've removed the maximum amount this frame, wait until the next frame.
+            if (removalIterations % gridSettings.getRemovalsPerFrame() == 0) {
+                // yield return null;
+                return;
+            }
+        }
+
+        // reset the removal count.
+        removalIterations = 0;
+
+        while (!cellAdditions.isEmpty()) {
+
+            if (!submitCell(cellAdditions.poll())) {
+                continue;
+            }
+
+            additionIterations++;
+
+            // if we've added the maximum amount this frame, wait until the next frame.
+            if (additionIterations % gridSettings.getAdditionsPerFrame() == 0) {
+                return;
+            }
+        }
+
+        // reset the addition count.
+        additionIterations = 0;
+
+    }
+
+    /**
+     * Applies, attaches and destroys cells until this frames allowance has been used up.
+     * Anything left over is carried to the next frame.
+     */
+    private void tickBudgeted() {
+
+        long allowance = (long) (frameAllowance * 1_000_000);
+
+        // if we went over budget last frame, we have less time this frame.
+        long deadline = System.nanoTime() + allowance - budgetDebt;
+
+        // finished cells fill holes in the view, so they come first.
+        updateThreadpool(deadline);
+
+        // always remove at least one cell so removals are never starved by additions.
+        boolean removed = false;
+
+        while (!cellRemovals.isEmpty() && (!removed || System.nanoTime() - deadline < 0)) {
+            removed |= removeCell(cellRemovals.removeAny());
+        }
+
+        // submitting is cheap, but the pool is first-in first-out, so only keep it busy instead of flooding it.
+        // that way the closest cells are always the next to be built.
+        int maxInFlight = parallelism * 2;
+
+        while (!cellAdditions.isEmpty() && loadingCells.size() < maxInFlight) {
+            submitCell(cellAdditions.poll());
+        }
+
+        // carry any overspend, but never more than a frame, so we always make progress.
+        budgetDebt = Math.min(Math.max(0, System.nanoTime() - deadline), allowance);
+    }
+
+    private boolean removeCell(long key) {
+
+        // the cell may have come back into view since it was marked for removal.
+        T cell = isInView(key) ? null : loadedCells.get(key);
+
+        if (cell == null) {
+            return false;
+        }
+
+        loadedCells.remove(key);
+
+        if (cellCache.isEnabled()) {
+            handler.detachCell(cell);
+            cellCache.put(key, cell);
+        }
+        else {
+            handler.destroyCell(cell);
+        }
+
+        return true;
+    }
+
+    private boolean submitCell(long key) {
+
+        // if this position is loading or already loaded, ignore the cell load request.
+        if (loadingCells.containsKey(key) || loadedCells.containsKey(key)) {
+            return false;
+        }
+
+        // we may have built this cell before.
+        if (cellCache.isEnabled()) {
+
+            T cell = cellCache.take(key);
+
+            if (cell != null) {
+                handler.reattachCell(cell);
+                loadedCells.put(key, cell);
+                return true;
+            }
+        }
+
+        GridPos2i pos = new GridPos2i(GridPos2i.keyToX(key), GridPos2i.keyToZ(key), gridSettings.getCellSize().getBitshift());
+
+        ThreadedWorker<T> worker = new ThreadedWorker<>(pos, handler);
+        loadingCells.put(key, worker);
+
+        worker.setFuture(completionService.submit(worker));
+
+        return true;
+    }
+
+    /**
+     * Applies finished cells.
+     * @param deadline the System.nanoTime() at which to stop applying cells, or zero to apply every finished cell.
+     */
+    private void updateThreadpool(long deadline) {
+
+        boolean applied = false;
+
+        // always apply at least one cell so we make progress regardless of the allowance.
+        while (deadline == 0 || !applied || System.nanoTime() - deadline < 0) {
+
+            ThreadedWorker<T> worker = completionService.poll();
+
+            if (worker == null) {
+                return;
+            }
+
+            // the cell left the view while it was being built.
+            if (worker.isAbandoned()) {
+
+                if (worker.getResult() != null) {
+                    handler.discardCell(worker.getResult());
+                }
+
+                continue;
+            }
+
+            long key = worker.getGridPos().toKey();
+            loadingCells.remove(key);
+
+            if (worker.getFailure() != null) {
+                failedBuilds++;
+                handler.cellFailed(worker.getGridPos(), worker.getFailure());
+                continue;
+            }
+
+            handler.applyCell(worker.getGridPos(), worker.getResult());
+            loadedCells.put(key, worker.getResult());
+            applied = true;
+        }
+
+    }
+
+    /**
+     * Gets the amount of milliseconds this pager may spend applying and destroying cells each tick.
+     * @return the per-tick allowance in milliseconds. Zero or less if the pager uses per-frame cell counts.
+     */
+    public float getFrameAllowance() {
+        return frameAllowance;
+    }
+
+    /**
+     * Sets the amount of milliseconds this pager may spend applying and destroying cells each tick.
+     * Any work left over is carried to the next tick. When an allowance is set, the per-frame addition and removal
+     * counts in the grid settings are ignored.
+     * @param frameAllowance the per-tick allowance in milliseconds, or zero to use per-frame cell counts.
+     */
+    public void setFrameAllowance(float frameAllowance) {
+        this.frameAllowance = frameAllowance;
+    }
+
+    /**
+     * Gets the amount of outstanding work this pager has.
+     * @return the amount of cells being built or waiting to be removed.
+     */
+    public int getPendingWork() {
+        return loadingCells.size() + cellRemovals.size();
+    }
+
+    private interface CellVisitor {
+        void visit(int x, int z);
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.GridSettings;
+import com.jayfella.jme.worldpager.world.Follower;
+import com.jme3.math.Vector3f;
+
+/**
+ * The region of cells a single follower requires from a grid.
+ * The region from before the last change is kept so the grid only needs to visit the cells that changed.
+ */
+class FollowerView {
+
+    private final Follower follower;
+
+    private final GridPos2i currentGridPos;
+    private final GridPos2i lastGridPos;
+
+    // the region of cells currently in view, inclusive.
+    private int minX, maxX, minZ, maxZ;
+    private boolean valid;
+
+    // the region before the last change.
+    private int prevMinX, prevMaxX, prevMinZ, prevMaxZ;
+    private boolean prevValid;
+
+    // how many cells the region is moved ahead of the follower.
+    private int prefetchShiftX, prefetchShiftZ;
+
+    // the last time this view was updated. Views that miss an update no longer have a follower.
+    private int stamp;
+
+    FollowerView(Follower follower, int bitshift) {
+        this.follower = follower;
+        this.currentGridPos = new GridPos2i(bitshift);
+        this.lastGridPos = new GridPos2i(bitshift);
+    }
+
+    /**
+     * Moves the region to where the follower is now.
+     * @param gridSettings the settings of the grid.
+     * @param forceUpdate  whether or not to treat the region as changed even if it's the same.
+     * @return true if the region changed.
+     */
+    boolean update(GridSettings gridSettings, boolean forceUpdate) {
+
+        currentGridPos.set(follower.getLocation());
+
+        int viewDistance = gridSettings.getViewDistance();
+
+        // move the region ahead of the follower, but never so far that the follower leaves it.
+        int maxShift = viewDistance / 2;
+        int newShiftX = calculatePrefetchShift(gridSettings, follower.getVelocity().x, prefetchShiftX, maxShift);
+        int newShiftZ = calculatePrefetchShift(gridSettings, follower.getVelocity().z, prefetchShiftZ, maxShift);
+
+        // if the last grid position equals the current grid position, nothing needs to be done.
+        // Unless we demand an update
+        if (valid && lastGridPos.equals(currentGridPos) && newShiftX == prefetchShiftX && newShiftZ == prefetchShiftZ && !forceUpdate) {
+            return false;
+        }
+
+        prevMinX = minX;
+        prevMaxX = maxX;
+        prevMinZ = minZ;
+        prevMaxZ = maxZ;
+        prevValid = valid;
+
+        prefetchShiftX = newShiftX;
+        prefetchShiftZ = newShiftZ;
+
+        // the region is always the same amount of cells, it's just moved ahead of us if we are moving.
+        // which means the cells behind us are unloaded sooner.
+        minX = currentGridPos.getX() - viewDistance + prefetchShiftX;
+        maxX = currentGridPos.getX() + viewDistance + prefetchShiftX;
+        minZ = currentGridPos.getZ() - viewDistance + prefetchShiftZ;
+        maxZ = currentGridPos.getZ() + viewDistance + prefetchShiftZ;
+        valid = true;
+
+        // set our last position to the set position.
+        lastGridPos.set(currentGridPos);
+
+        return true;
+    }
+
+    /**
+     * Calculates how many cells the region should be moved ahead of the follower on one axis.
+     * The current shift is kept until the velocity moves a good way past it so the region doesn't flicker back and
+     * forth when the velocity is close to a boundary.
+     */
+    private static int calculatePrefetchShift(GridSettings gridSettings, float velocity, int currentShift, int maxShift) {
+
+        if (gridSettings.getPrefetchTime() <= 0) {
+            return 0;
+        }
+
+        float shift = velocity * gridSettings.getPrefetchTime() / gridSettings.getCellSize().getSize();
+
+        if (Math.abs(shift - currentShift) < 0.75f) {
+            return Math.max(-maxShift, Math.min(maxShift, currentShift));
+        }
+
+        return Math.max(-maxShift, Math.min(maxShift, Math.round(shift)));
+    }
+
+    /**
+     * Gets the direction cells should be favored in. When the region is moved ahead of the follower this is the
+     * direction of travel, else the direction the follower is looking.
+     */
+    Vector3f getPriorityDirection() {
+        return (prefetchShiftX != 0 || prefetchShiftZ != 0) ? follower.getVelocity() : follower.getDirection();
+    }
+
+    Follower getFollower() { return follower; }
+    GridPos2i getGridPos() { return currentGridPos; }
+
+    int getMinX() { return minX; }
+    int getMaxX() { return maxX; }
+    int getMinZ() { return minZ; }
+    int getMaxZ() { return maxZ; }
+    boolean isValid() { return valid; }
+
+    int getPrevMinX() { return prevMinX; }
+    int getPrevMaxX() { return prevMaxX; }
+    int getPrevMinZ() { return prevMinZ; }
+    int getPrevMaxZ() { return prevMaxZ; }
+    boolean isPrevValid() { return prevValid; }
+
+    int getStamp() { return stamp; }
+    void setStamp(int stamp) { this.stamp = stamp; }
+
+}
@@ -1,8 +1,21 @@
 package com.jayfella.jme.worldpager.grid;
 
+import com.jayfella.jme.worldpager.core.CompactHeightMapMesh;
 import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.HeightMapMesh;
+import com.jayfella.jme.worldpager.core.SharedGridCoordinates;
+import com.jayfella.jme.worldpager.core.SharedIndexBuffers;
+import com.jayfella.jme.worldpager.core.SimplifiedHeightMapMesh;
+import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
+import com.jme3.scene.SceneGraphVisitorAdapter;
+import com.jme3.scene.Spatial;
+import com.jme3.scene.VertexBuffer;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 public class GridCell {
 
@@ -12,6 +25,15 @@ public class GridCell {
 
     private int lodLevel;
     private Mesh[] lodMeshes;
+    private float[] heightMap;
+
+    // the data generated by the grid, until the cell is applied.
+    private Object[] pendingData;
+
+    // whether or not the cell was attached to the grid when it was detached.
+    private boolean attached;
+    private long payloadBytes = -1;
+    private boolean destroyed;
 
     public GridCell(GridPos2i gridPos, Node cellNode, SceneGrid parent) {
         this.gridPos = gridPos;
@@ -43,12 +65,165 @@ public class GridCell {
         return lodMeshes;
     }
 
+    /**
+     * Sets the meshes of each level of detail that have been built for this cell. Levels that haven't been built are
+     * null. Set the meshes again whenever a level is added so the memory estimate of the cell is updated.
+     * @param lodMeshes the meshes of each level of detail.
+     */
     public void setLodMeshes(Mesh[] lodMeshes) {
         this.lodMeshes = lodMeshes;
+        this.payloadBytes = -1;
+    }
+
+    public float[] getHeightMap() {
+        return heightMap;
+    }
+
+    /**
+     * Sets the heightmap the cell was built from, so the cell can be built again at another level of detail
+     * without evaluating the noise again.
+     * @param heightMap the heightmap of the cell.
+     */
+    public void setHeightMap(float[] heightMap) {
+        this.heightMap = heightMap;
+    }
+
+    void setPendingData(Object[] pendingData) {
+        this.pendingData = pendingData;
+    }
+
+    Object[] takePendingData() {
+        Object[] data = pendingData;
+        pendingData = null;
+        return data;
+    }
+
+    /**
+     * Removes the cell from the scene but keeps its generated data so it can be attached again.
+     */
+    public void detach() {
+        attached = cellNode.removeFromParent();
+    }
+
+    /**
+     * Attaches a previously detached cell back to the scene.
+     * Cells that had nothing to attach when they were detached are left alone.
+     * @param parent the node to attach the cell to.
+     */
+    public void reattach(Node parent) {
+        if (attached) {
+            parent.attachChild(cellNode);
+        }
+    }
+
+    /**
+     * Gets an estimate of the memory used by the meshes of this cell.
+     * @return the amount of bytes used by the vertex buffers of this cell.
+     */
+    public long getPayloadBytes() {
+
+        if (payloadBytes < 0) {
+
+            long bytes = 0;
+
+            for (Mesh mesh : getMeshes()) {
+                for (VertexBuffer vertexBuffer : mesh.getBufferList()) {
+                    // shared buffers aren't freed with the cell.
+                    if (vertexBuffer.getData() != null
+                            && !SharedIndexBuffers.isShared(vertexBuffer)
+                            && !SharedGridCoordinates.isShared(vertexBuffer)) {
+                        bytes += (long) vertexBuffer.getData().capacity() * vertexBuffer.getFormat().getComponentSize();
+                    }
+                }
+            }
+
+            payloadBytes = bytes;
+        }
+
+        return payloadBytes;
+    }
+
+    // the meshes in the scene and the levels of detail that aren't, each only once.
+    private Set<Mesh> getMeshes() {
+
+        Set<Mesh> meshes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        cellNode.depthFirstTraversal(new SceneGraphVisitorAdapter() {
+            @Override
+            public void visit(Geometry geometry) {
+                meshes.add(geometry.getMesh());
+            }
+        });
+
+        if (lodMeshes != null) {
+            for (Mesh mesh : lodMeshes) {
+                if (mesh != null) {
+                    meshes.add(mesh);
+                }
+            }
+        }
+
+        return meshes;
+    }
+
+    /**
+     * Determines whether or not the cell has been destroyed. A destroyed cell must not be used again.
+     * @return true if the cell has been destroyed.
+     */
+    public boolean isDestroyed() {
+        return destroyed;
     }
 
     public void destroy() {
+        destroyed = true;
         cellNode.removeFromParent();
+
+        // the cell is gone for good, so its meshes can give their buffers to the next cell.
+        getMeshes().forEach(GridCell::releaseMesh);
+    }
+
+    /**
+     * Destroys a cell that was built but never applied. The meshes in the data it was built with are released too.
+     */
+    void discard() {
+
+        Object[] data = takePendingData();
+
+        if (data != null) {
+
+            Set<Mesh> meshes = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (Object object : data) {
+                if (object instanceof Spatial) {
+                    ((Spatial) object).depthFirstTraversal(new SceneGraphVisitorAdapter() {
+                        @Override
+                        public void visit(Geometry geometry) {
+                            meshes.add(geometry.getMesh());
+                        }
+                    });
+                }
+                else if (object instanceof Mesh) {
+                    meshes.add((Mesh) object);
+                }
+            }
+
+            meshes.forEach(GridCell::releaseMesh);
+        }
+
+        destroy();
+    }
+
+    private static void releaseMesh(Mesh mesh) {
+
+        if (mesh instanceof HeightMapMesh) {
+            ((HeightMapMesh) mesh).release();
+        }
+        else if (mesh instanceof CompactHeightMapMesh) {
+            ((CompactHeightMapMesh) mesh).release();
+        }
+        else if (mesh instanceof SimplifiedHeightMapMesh) {
+            ((SimplifiedHeightMapMesh) mesh).release();
+        }
     }
 
 }
@@ -5,8 +5,8 @@ import com.jayfella.jme.worldpager.core.GridSettings;
 import com.jayfella.jme.worldpager.grid.collision.CollisionGrid;
 import com.jme3.math.Vector3f;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 
 public class GridCollider {
 
@@ -16,10 +16,14 @@ public class GridCollider {
     // view distance changes with velocity
     private int vd_x_l,vd_x_r, vd_z_f, vd_z_b;
 
-    private final Set<GridPos2i> requiredPositions = new HashSet<>();
+    // the positions this collider needs, and how soon it could reach each of them.
+    private final Map<GridPos2i, Float> requiredPositions = new HashMap<>();
 
     private final GridPos2i currentGridPos, lastGridPos;
 
+    // roughly how many cells per second the collider can move.
+    private float urgency = 1;
+
     public GridCollider(GridSettings gridSettings, CollisionGrid collisionGrid) {
         this.gridSettings = gridSettings;
         this.collisionGrid = collisionGrid;
@@ -34,6 +38,32 @@ public class GridCollider {
         return gridSettings;
     }
 
+    public float getUrgency() {
+        return urgency;
+    }
+
+    /**
+     * Sets how urgently this collider needs its cells. Cells are built in order of how soon a collider could reach
+     * them, which is their distance divided by the urgency, so a collider that moves twice as fast should have twice
+     * the urgency.
+     * @param urgency roughly how many cells per second this collider can move.
+     */
+    public void setUrgency(float urgency) {
+        this.urgency = urgency;
+
+        // the cells have already been requested, only how soon they are needed changes.
+        requiredPositions.replaceAll((gridPos, priority) -> getPriority(gridPos));
+    }
+
+    private float getPriority(GridPos2i gridPos) {
+
+        int distance = Math.max(
+                Math.abs(gridPos.getX() - currentGridPos.getX()),
+                Math.abs(gridPos.getZ() - currentGridPos.getZ()));
+
+        return distance / Math.max(urgency, 0.0001f);
+    }
+
     private void invalidatePosition() {
         this.lastGridPos.set(-currentGridPos.getX(), -currentGridPos.getZ());
         setLocation(currentGridPos.toWorldTranslation());
@@ -94,8 +124,10 @@ public class GridCollider {
 
                 GridPos2i newGridPosition = new GridPos2i(x, z, gridSettings.getCellSize().getBitshift());
 
-                collisionGrid.positionRequested(newGridPosition);
-                requiredPositions.add(newGridPosition);
+                float priority = getPriority(newGridPosition);
+
+                collisionGrid.positionRequested(newGridPosition, priority);
+                requiredPositions.put(newGridPosition, priority);
             }
         }
 
@@ -0,0 +1,769 @@
+package com.jayfella.jme.worldpager.grid;
+
+import com.jayfella.jme.worldpager.core.CellBuilder;
+import com.jayfella.jme.worldpager.core.CellCompletionService;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.HeightMapMesh;
+import com.jayfella.jme.worldpager.core.LongObjectMap;
+import com.jayfella.jme.worldpager.core.LongSet;
+import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+import com.jayfella.jme.worldpager.core.QuadtreeSettings;
+import com.jayfella.jme.worldpager.core.ThreadedWorker;
+import com.jayfella.jme.worldpager.world.Follower;
+import com.jayfella.jme.worldpager.world.World;
+import com.jme3.app.Application;
+import com.jme3.app.state.BaseAppState;
+import com.jme3.material.Material;
+import com.jme3.math.Vector2f;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.Geometry;
+import com.jme3.scene.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A grid that pages a quadtree of terrain nodes instead of a square of equal-sized cells.
+ *
+ * The world is covered by root nodes around each follower. A node is split into four children while a follower is
+ * within the split distance of it, down to the leaf size, so the size of a node doubles with its distance from the
+ * nearest follower. Every node has a mesh of the same resolution, which keeps the amount of loaded nodes and
+ * triangles about the same regardless of how far the root nodes reach.
+ *
+ * Nodes are built on the world thread pool. A node that is split stays visible until all of its children have been
+ * built, and the children of a merged node stay visible until the merged node has been built, so the terrain never
+ * has holes once it has loaded. Neighbouring nodes of different sizes are hidden behind skirts.
+ *
+ * Unlike a {@link SceneGrid}, the quadtree grid is not added to the world. Attach it to the state manager and attach
+ * its node to the world node. It follows the followers of the world unless it is located directly.
+ */
+public class QuadtreeGrid extends BaseAppState implements Grid {
+
+    private static final Logger log = LoggerFactory.getLogger(QuadtreeGrid.class);
+
+    private String name = "Quadtree";
+
+    private final World world;
+    private final QuadtreeSettings settings;
+    private final Node gridNode;
+    private Material material;
+
+    // the shape of the tree is fixed when the grid is created.
+    private final int leafShift;
+    private final int rootShift;
+    private final int resolution;
+
+    private final CellCompletionService<QuadNode> completionService;
+    private final CellBuilder<QuadNode> builder = this::buildNode;
+
+    // nodes are indexed by the bitshift of their size, and keyed by their packed position at that size.
+    private final LongObjectMap<QuadNode>[] builtNodes;
+    private final LongObjectMap<ThreadedWorker<QuadNode>>[] buildingNodes;
+    private final LongSet[] requestedNodes;
+
+    // the nodes to build, found each time the tree is visited. Holes in the terrain come first.
+    private final List<Request> requests = new ArrayList<>();
+    private final LongSet visitedRoots = new LongSet();
+
+    // the follower used when the grid is located directly instead of by the world.
+    private final Follower localFollower = new Follower();
+    private List<Follower> followers;
+
+    // the tree is only visited when something has changed.
+    private final List<Vector3f> visitedLocations = new ArrayList<>();
+    private boolean dirty = true;
+    private int stamp;
+
+    private int visibleNodes;
+    private long visibleTriangles;
+    private long failedBuilds;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public QuadtreeGrid(World world, QuadtreeSettings settings) {
+
+        if (settings.getRootSize() < settings.getLeafSize()) {
+            throw new IllegalArgumentException("The root size must be no smaller than the leaf size.");
+        }
+
+        this.world = world;
+        this.settings = settings;
+        this.leafShift = Integer.numberOfTrailingZeros(settings.getLeafSize());
+        this.rootShift = Integer.numberOfTrailingZeros(settings.getRootSize());
+        this.resolution = settings.getResolution();
+        this.gridNode = new Node("QuadtreeGrid: " + name);
+        this.completionService = new CellCompletionService<>(world.getThreadPool());
+
+        this.builtNodes = new LongObjectMap[Integer.SIZE];
+        this.buildingNodes = new LongObjectMap[Integer.SIZE];
+        this.requestedNodes = new LongSet[Integer.SIZE];
+
+        for (int i = leafShift; i <= rootShift; i++) {
+            builtNodes[i] = new LongObjectMap<>();
+            buildingNodes[i] = new LongObjectMap<>();
+            requestedNodes[i] = new LongSet();
+        }
+    }
+
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+
+    @Override
+    public World getWorld() {
+        return world;
+    }
+
+    public QuadtreeSettings getSettings() {
+        return settings;
+    }
+
+    public Node getGridNode() {
+        return gridNode;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public void setMaterial(Material material) {
+        this.material = material;
+
+        for (int i = leafShift; i <= rootShift; i++) {
+            builtNodes[i].forEachValue(node -> node.geometry.setMaterial(material));
+        }
+    }
+
+    /**
+     * Destroys every node and builds the tree again, for example after the world noise has changed.
+     */
+    @Override
+    public void refreshGrid() {
+
+        for (int i = leafShift; i <= rootShift; i++) {
+            buildingNodes[i].forEachValue(ThreadedWorker::abandon);
+            buildingNodes[i].clear();
+
+            builtNodes[i].forEachValue(QuadNode::destroy);
+            builtNodes[i].clear();
+        }
+
+        dirty = true;
+    }
+
+    @Override
+    public void setLocation(Vector3f location) {
+        setLocation(location, false);
+    }
+
+    /**
+     * Loads the nodes around a single location instead of around the followers of the world.
+     * @param location    the location to load nodes around.
+     * @param forceUpdate whether or not to visit the tree even if the location has not changed much.
+     */
+    @Override
+    public void setLocation(Vector3f location, boolean forceUpdate) {
+        localFollower.setLocation(location);
+        setFollowers(Collections.singletonList(localFollower));
+        dirty |= forceUpdate;
+    }
+
+    public List<Follower> getFollowers() {
+        return followers != null ? followers : world.getFollowers();
+    }
+
+    /**
+     * Loads the nodes around the given followers instead of around the followers of the world.
+     * @param followers the followers to load nodes around, or null to follow the followers of the world.
+     */
+    public void setFollowers(List<Follower> followers) {
+        this.followers = followers;
+    }
+
+    /**
+     * Gets the amount of nodes that have been built and are either visible or waiting for their neighbours in the
+     * tree to be built.
+     * @return the amount of loaded nodes.
+     */
+    public int getLoadedNodeCount() {
+
+        int count = 0;
+
+        for (int i = leafShift; i <= rootShift; i++) {
+            count += builtNodes[i].size();
+        }
+
+        return count;
+    }
+
+    public int getVisibleNodeCount() {
+        return visibleNodes;
+    }
+
+    /**
+     * Gets the amount of triangles of the visible nodes, including their skirts.
+     * @return the amount of visible triangles.
+     */
+    public long getVisibleTriangleCount() {
+        return visibleTriangles;
+    }
+
+    public int getBuildingNodeCount() {
+
+        int count = 0;
+
+        for (int i = leafShift; i <= rootShift; i++) {
+            count += buildingNodes[i].size();
+        }
+
+        return count;
+    }
+
+    /**
+     * Gets the amount of node builds that threw an exception.
+     * @return the amount of builds that failed.
+     */
+    public long getFailedBuildCount() {
+        return failedBuilds;
+    }
+
+    @Override protected void initialize(Application app) { }
+
+    @Override
+    protected void cleanup(Application app) {
+        refreshGrid();
+    }
+
+    @Override protected void onEnable() { }
+    @Override protected void onDisable() { }
+
+    @Override
+    public void update(float tpf) {
+
+        applyBuiltNodes();
+
+        List<Follower> followers = getFollowers();
+
+        if (dirty || followersMoved(followers)) {
+            dirty = false;
+            visitTree(followers);
+        }
+    }
+
+    private void applyBuiltNodes() {
+
+        ThreadedWorker<QuadNode> worker;
+
+        while ((worker = completionService.poll()) != null) {
+
+            // the node was no longer wanted by the time it was built.
+            if (worker.isAbandoned()) {
+
+                if (worker.getResult() != null) {
+                    worker.getResult().destroy();
+                }
+
+                continue;
+            }
+
+            GridPos2i pos = worker.getGridPos();
+            buildingNodes[pos.getBitshift()].remove(pos.toKey());
+
+            if (worker.getFailure() != null) {
+                failedBuilds++;
+                log.error("Error building quadtree node " + pos + " in grid " + getName(), worker.getFailure());
+            }
+            else {
+                builtNodes[pos.getBitshift()].put(pos.toKey(), worker.getResult());
+            }
+
+            dirty = true;
+        }
+    }
+
+    // only visit the tree when a follower has moved a fair way into a leaf node.
+    private boolean followersMoved(List<Follower> followers) {
+
+        float threshold = (1 << leafShift) / 8f;
+        boolean moved = visitedLocations.size() != followers.size();
+
+        for (int i = 0; !moved && i < followers.size(); i++) {
+            moved = visitedLocations.get(i).distanceSquared(followers.get(i).getLocation()) > threshold * threshold;
+        }
+
+        if (moved) {
+
+            visitedLocations.clear();
+
+            for (Follower follower : followers) {
+                visitedLocations.add(follower.getLocation().clone());
+            }
+        }
+
+        return moved;
+    }
+
+    private void visitTree(List<Follower> followers) {
+
+        stamp++;
+        requests.clear();
+        visitedRoots.clear();
+
+        for (int i = leafShift; i <= rootShift; i++) {
+            requestedNodes[i].clear();
+        }
+
+        int viewDistance = settings.getViewDistance();
+
+        for (Follower follower : followers) {
+
+            int rootX = (int) Math.floor(follower.getLocation().x) >> rootShift;
+            int rootZ = (int) Math.floor(follower.getLocation().z) >> rootShift;
+
+            for (int x = rootX - viewDistance; x <= rootX + viewDistance; x++) {
+                for (int z = rootZ - viewDistance; z <= rootZ + viewDistance; z++) {
+                    if (visitedRoots.add(GridPos2i.toKey(x, z))) {
+                        visit(rootShift, x, z, followers);
+                    }
+                }
+            }
+        }
+
+        updateScene();
+        submitRequests(followers);
+    }
+
+    private void visit(int shift, int x, int z, List<Follower> followers) {
+
+        if (!shouldSplit(shift, x, z, followers)) {
+
+            QuadNode node = getBuiltNode(shift, x, z);
+
+            if (node != null) {
+                node.show(stamp);
+            }
+            else {
+                // the children of a merged node stay until the node has been built.
+                request(shift, x, z, !showBuiltDescendants(shift, x, z), followers);
+            }
+
+            return;
+        }
+
+        // a split node stays until every child has been built.
+        if (!isComplete(shift, x, z, followers)) {
+
+            QuadNode node = getBuiltNode(shift, x, z);
+
+            if (node != null) {
+                node.show(stamp);
+
+                for (int i = 0; i < 4; i++) {
+                    keepSubtree(shift - 1, (x << 1) + (i & 1), (z << 1) + (i >> 1), followers);
+                }
+
+                return;
+            }
+        }
+
+        for (int i = 0; i < 4; i++) {
+            visit(shift - 1, (x << 1) + (i & 1), (z << 1) + (i >> 1), followers);
+        }
+    }
+
+    // whether or not every node that should be shown in this part of the tree has been built.
+    private boolean isComplete(int shift, int x, int z, List<Follower> followers) {
+
+        if (!shouldSplit(shift, x, z, followers)) {
+            return getBuiltNode(shift, x, z) != null;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            if (!isComplete(shift - 1, (x << 1) + (i & 1), (z << 1) + (i >> 1), followers)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // keeps the nodes that have been built in a part of the tree that is hidden by its parent, and builds the rest.
+    private void keepSubtree(int shift, int x, int z, List<Follower> followers) {
+
+        if (!shouldSplit(shift, x, z, followers)) {
+
+            QuadNode node = getBuiltNode(shift, x, z);
+
+            if (node != null) {
+                node.keep(stamp);
+            }
+            else {
+                request(shift, x, z, false, followers);
+            }
+
+            return;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            keepSubtree(shift - 1, (x << 1) + (i & 1), (z << 1) + (i >> 1), followers);
+        }
+    }
+
+    private boolean showBuiltDescendants(int shift, int x, int z) {
+
+        if (shift <= leafShift) {
+            return false;
+        }
+
+        boolean shown = false;
+
+        for (int i = 0; i < 4; i++) {
+
+            int childX = (x << 1) + (i & 1);
+            int childZ = (z << 1) + (i >> 1);
+
+            QuadNode child = getBuiltNode(shift - 1, childX, childZ);
+
+            if (child != null) {
+                child.show(stamp);
+                shown = true;
+            }
+            else {
+                shown |= showBuiltDescendants(shift - 1, childX, childZ);
+            }
+        }
+
+        return shown;
+    }
+
+    private boolean shouldSplit(int shift, int x, int z, List<Follower> followers) {
+
+        if (shift <= leafShift) {
+            return false;
+        }
+
+        int size = 1 << shift;
+        float splitDistance = settings.getSplitDistance() * size;
+
+        for (Follower follower : followers) {
+            if (getDistance(shift, x, z, follower.getLocation()) < splitDistance) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // the distance on the x and z planes from a location to the nearest point of a node.
+    private static float getDistance(int shift, int x, int z, Vector3f location) {
+
+        int size = 1 << shift;
+        float minX = x << shift;
+        float minZ = z << shift;
+
+        float dx = Math.max(0, Math.max(minX - location.x, location.x - (minX + size)));
+        float dz = Math.max(0, Math.max(minZ - location.z, location.z - (minZ + size)));
+
+        return (float) Math.sqrt(dx * dx + dz * dz);
+    }
+
+    private QuadNode getBuiltNode(int shift, int x, int z) {
+        return builtNodes[shift].get(GridPos2i.toKey(x, z));
+    }
+
+    private void request(int shift, int x, int z, boolean hole, List<Follower> followers) {
+
+        requestedNodes[shift].add(GridPos2i.toKey(x, z));
+
+        if (!buildingNodes[shift].containsKey(GridPos2i.toKey(x, z))) {
+
+            float distance = Float.MAX_VALUE;
+
+            for (Follower follower : followers) {
+                distance = Math.min(distance, getDistance(shift, x, z, follower.getLocation()));
+            }
+
+            requests.add(new Request(new GridPos2i(x, z, shift), hole, distance));
+        }
+    }
+
+    // attaches the nodes to show, detaches the nodes to hide and destroys the nodes no longer needed.
+    private void updateScene() {
+
+        visibleNodes = 0;
+        visibleTriangles = 0;
+
+        for (int i = leafShift; i <= rootShift; i++) {
+
+            builtNodes[i].removeValuesIf(node -> {
+
+                if (!node.isKept(stamp)) {
+                    node.destroy();
+                    return true;
+                }
+
+                if (node.isShown(stamp)) {
+
+                    if (node.geometry.getParent() == null) {
+                        gridNode.attachChild(node.geometry);
+                    }
+
+                    visibleNodes++;
+                    visibleTriangles += node.geometry.getTriangleCount();
+                }
+                else {
+                    node.geometry.removeFromParent();
+                }
+
+                return false;
+            });
+
+            // anything still being built that is no longer needed is abandoned.
+            LongSet requested = requestedNodes[i];
+
+            buildingNodes[i].removeValuesIf(worker -> {
+
+                if (!requested.contains(worker.getGridPos().toKey())) {
+                    worker.abandon();
+                    return true;
+                }
+
+                return false;
+            });
+        }
+    }
+
+    private void submitRequests(List<Follower> followers) {
+
+        // the pool is first-in first-out, so only keep it busy instead of flooding it.
+        // that way the most important nodes are always the next to be built.
+        int maxInFlight = world.getWorldSettings().getNumThreads() * 2;
+        int inFlight = getBuildingNodeCount();
+
+        if (inFlight >= maxInFlight || requests.isEmpty()) {
+            return;
+        }
+
+        requests.sort(null);
+
+        for (int i = 0; i < requests.size() && inFlight < maxInFlight; i++, inFlight++) {
+
+            GridPos2i pos = requests.get(i).pos;
+
+            ThreadedWorker<QuadNode> worker = new ThreadedWorker<>(pos, builder);
+            buildingNodes[pos.getBitshift()].put(pos.toKey(), worker);
+
+            worker.setFuture(completionService.submit(worker));
+        }
+    }
+
+    /**
+     * Builds the mesh of a node on a worker thread.
+     * The heights are sampled at the spacing of the node, scaled down so the mesh has a spacing of one, and the
+     * geometry is scaled back up. That way the normals and skirts of every node are built the same way.
+     */
+    private QuadNode buildNode(GridPos2i pos) {
+
+        int size = 1 << pos.getBitshift();
+        float spacing = size / (float) resolution;
+
+        int hmapDim = resolution + 3;
+        float[] heightmap = new float[hmapDim * hmapDim];
+
+        NoiseEvaluator noise = world.getWorldNoise();
+
+        // the heightmap has a one sample border.
+        noise.evaluate(heightmap,
+                pos.getWorldTranslationX() - spacing, pos.getWorldTranslationZ() - spacing,
+                spacing, hmapDim, hmapDim);
+
+        float scale = 1 / spacing;
+
+        for (int i = 0; i < heightmap.length; i++) {
+            heightmap[i] *= scale;
+        }
+
+        // nothing stops a neighbour from being any other size, so the skirt covers the gap to a neighbour of any size.
+        float skirtDepth = settings.getSkirtDepth() * scale + getNeighbourError(noise, pos, heightmap, spacing);
+
+        HeightMapMesh mesh = new HeightMapMesh(heightmap, 0, skirtDepth, world.getIntraCellExecutor());
+
+        Geometry geometry = new Geometry("Quadtree Node: " + pos + " (" + size + ")", mesh);
+        geometry.setMaterial(material);
+        geometry.setLocalTranslation(pos.toWorldTranslation());
+        geometry.setLocalScale(spacing);
+
+        return new QuadNode(geometry);
+    }
+
+    /**
+     * Gets how far the edges of a node can be from the edges of a neighbour of any other size, in the units of the
+     * scaled heightmap. The edges of both nodes are straight between their vertices, so the gap is largest at the
+     * vertices of the smaller node, which lie on the terrain. A larger neighbour is a straight line between every few
+     * heights of the node, and a smaller neighbour follows the terrain between the heights of the node.
+     */
+    private float getNeighbourError(NoiseEvaluator noise, GridPos2i pos, float[] heightmap, float spacing) {
+
+        float error = 0;
+
+        for (int levels = 1; levels <= rootShift - pos.getBitshift(); levels++) {
+            error = Math.max(error, getLargerNeighbourError(noise, pos, heightmap, spacing, levels));
+        }
+
+        if (pos.getBitshift() > leafShift) {
+            error = Math.max(error, getSmallerNeighbourError(noise, pos, heightmap, spacing));
+        }
+
+        return error;
+    }
+
+    private float getLargerNeighbourError(NoiseEvaluator noise, GridPos2i pos, float[] heightmap, float spacing,
+                                          int levels) {
+
+        // the vertices of the neighbour are among the heights of the node.
+        if ((1 << levels) <= resolution) {
+            return HeightMapMesh.getEdgeError(heightmap, levels);
+        }
+
+        // the neighbour has no vertices along the edge, only a line between two vertices either side of it.
+        int neighbourSpacing = (int) (spacing * (1 << levels));
+        float scale = 1 / spacing;
+        float error = 0;
+
+        Vector2f loc = new Vector2f();
+
+        for (int edge = 0; edge < 4; edge++) {
+
+            boolean alongX = edge < 2;
+            int start = alongX ? pos.getWorldTranslationX() : pos.getWorldTranslationZ();
+            int across = (alongX ? pos.getWorldTranslationZ() : pos.getWorldTranslationX()) + (edge % 2) * (1 << pos.getBitshift());
+
+            int from = Math.floorDiv(start, neighbourSpacing) * neighbourSpacing;
+            int to = from + neighbourSpacing;
+
+            float fromHeight = noise.evaluate(alongX ? loc.set(from, across) : loc.set(across, from)) * scale;
+            float toHeight = noise.evaluate(alongX ? loc.set(to, across) : loc.set(across, to)) * scale;
+
+            for (int i = 0; i <= resolution; i++) {
+                float t = (start + i * spacing - from) / neighbourSpacing;
+                float line = fromHeight + (toHeight - fromHeight) * t;
+                error = Math.max(error, Math.abs(line - getEdgeHeight(heightmap, edge, i)));
+            }
+        }
+
+        return error;
+    }
+
+    private float getSmallerNeighbourError(NoiseEvaluator noise, GridPos2i pos, float[] heightmap, float spacing) {
+
+        // the smallest neighbour has its vertices this many times closer together.
+        int divisions = 1 << (pos.getBitshift() - leafShift);
+        int count = resolution * divisions + 1;
+
+        float[] terrain = new float[count];
+        float scale = 1 / spacing;
+        float error = 0;
+
+        for (int edge = 0; edge < 4; edge++) {
+
+            boolean alongX = edge < 2;
+            int offset = (edge % 2) * (1 << pos.getBitshift());
+
+            float originX = pos.getWorldTranslationX() + (alongX ? 0 : offset);
+            float originZ = pos.getWorldTranslationZ() + (alongX ? offset : 0);
+
+            noise.evaluate(terrain, originX, originZ, spacing / divisions, alongX ? count : 1, alongX ? 1 : count);
+
+            for (int j = 0; j < count; j++) {
+
+                int i = j / divisions;
+                int step = j % divisions;
+
+                float line = getEdgeHeight(heightmap, edge, i);
+
+                if (step > 0) {
+                    line += (getEdgeHeight(heightmap, edge, i + 1) - line) * step / divisions;
+                }
+
+                error = Math.max(error, Math.abs(line - terrain[j] * scale));
+            }
+        }
+
+        return error;
+    }
+
+    // the heights along the edges z = 0, z = size, x = 0 and x = size of a node.
+    private float getEdgeHeight(float[] heightmap, int edge, int i) {
+
+        int hmapDim = resolution + 3;
+        int across = (edge % 2) * resolution + 1;
+
+        return edge < 2
+                ? heightmap[across * hmapDim + i + 1]
+                : heightmap[(i + 1) * hmapDim + across];
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    private static final class QuadNode {
+
+        private final Geometry geometry;
+
+        // the last visit of the tree that showed or kept this node.
+        private int shownStamp;
+        private int keptStamp;
+
+        private QuadNode(Geometry geometry) {
+            this.geometry = geometry;
+        }
+
+        private void show(int stamp) {
+            shownStamp = keptStamp = stamp;
+        }
+
+        private void keep(int stamp) {
+            keptStamp = stamp;
+        }
+
+        private boolean isShown(int stamp) {
+            return shownStamp == stamp;
+        }
+
+        private boolean isKept(int stamp) {
+            return keptStamp == stamp;
+        }
+
+        private void destroy() {
+            geometry.removeFromParent();
+            ((HeightMapMesh) geometry.getMesh()).release();
+        }
+    }
+
+    private static final class Request implements Comparable<Request> {
+
+        private final GridPos2i pos;
+        private final boolean hole;
+        private final float distance;
+
+        private Request(GridPos2i pos, boolean hole, float distance) {
+            this.pos = pos;
+            this.hole = hole;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+
+            if (hole != other.hole) {
+                return hole ? -1 : 1;
+            }
+
+            return Float.compare(distance, other.distance);
+        }
+    }
+
+}
@@ -1,46 +1,30 @@
 package com.jayfella.jme.worldpager.grid;
 
+import com.jayfella.jme.worldpager.world.Follower;
 import com.jayfella.jme.worldpager.world.World;
 import com.jayfella.jme.worldpager.core.GridPos2i;
 import com.jayfella.jme.worldpager.core.GridSettings;
-import com.jayfella.jme.worldpager.core.ThreadedWorker;
 import com.jme3.app.Application;
 import com.jme3.app.state.BaseAppState;
-import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.stream.Collectors;
 
 /**
  * A grid that generates scene geometries.
+ * The paging itself is done by a {@link CellPager}, which this grid ticks every frame.
  */
 public abstract class SceneGrid extends BaseAppState {
 
     private String name;
 
-    private final List<Future<ThreadedWorker>> submittedTasks = new ArrayList<>();
+    private static final Logger log = LoggerFactory.getLogger(SceneGrid.class);
 
-    private final HashMap<GridPos2i, GridCell> loadedCells = new HashMap<>();
-    private final HashSet<GridPos2i> cellAdditions = new HashSet<>();
-    private final HashSet<GridPos2i> cellRemovals = new HashSet<>();
-    private final List<GridPos2i> requiredCells = new ArrayList<>();
-    private final List<GridPos2i> unneededCells = new ArrayList<>();
-
-    private final GridPos2i lastGridPos = new GridPos2i(100, 100, 0);
-    private final GridPos2i currentGridPos = new GridPos2i(0, 0, 0);
-
-    private final List<GridPos2i> loadingCells = new ArrayList<GridPos2i>();
-
-    // keep a count of how many cells we've added and removed per-frame.
-    private int removalIterations = 0;
-    private int additionIterations = 0;
+    private final CellPager<GridCell> pager;
+    private final CellBatcher batcher;
 
     private final World world;
 
@@ -51,37 +35,20 @@ public abstract class SceneGrid extends BaseAppState {
     public SceneGrid(World world, GridSettings gridSettings) {
         this.world = world;
         this.gridSettings = gridSettings;
-
-        this.lastGridPos.setBitshift(gridSettings.getCellSize().getBitshift());
-        this.currentGridPos.setBitshift(gridSettings.getCellSize().getBitshift());
+        this.pager = new CellPager<>(world.getThreadPool(), world.getWorldSettings().getNumThreads(), gridSettings, new SceneCellHandler());
+        this.batcher = new CellBatcher(this);
 
         this.gridNode = new Node("Sprite Grid");
     }
 
-    public float[] extractHeightMap(GridPos2i gridPos)
-    {
-        int gridSize = getGridSettings().getCellSize().getSize();
-
-        int hmapWidth = gridSize + 3;
-        int hmapDepth = gridSize + 3;
-
-        Vector3f worldPos = gridPos.toWorldTranslation();
-
-        float[] heightmap = new float[hmapWidth * hmapDepth];
-
-        for (int x = 0; x < hmapWidth; x++)
-        {
-            for (int z = 0; z < hmapDepth; z++)
-            {
-                heightmap[(z * hmapDepth) + x] = getWorld().getWorldNoise()
-                        .evaluate(new Vector2f(
-                                worldPos.x + x - 1,
-                                worldPos.z + z - 1
-                        ));
-            }
-        }
-
-        return heightmap;
+    /**
+     * Gets the heightmap of the given cell from the world heightfield cache.
+     * The heightmap is shared with other grids and must not be modified.
+     * @param gridPos the grid position of the cell.
+     * @return the heightmap of the cell, including a one sample border.
+     */
+    public float[] extractHeightMap(GridPos2i gridPos) {
+        return getWorld().getHeightfieldCache().getHeightMap(gridPos, getGridSettings().getCellSize());
     }
 
     public String getName() { return name; }
@@ -100,77 +67,79 @@ public abstract class SceneGrid extends BaseAppState {
     }
 
     public void refreshGrid() {
-        // destroy all game objects of the cells.
-
-        loadedCells.values().forEach(GridCell::destroy);
-
-        // clear the list of loaded cells.
-        loadedCells.clear();
-
-        // re-set the cell size as it may have changed prior to this call.
-        this.lastGridPos.setBitshift(gridSettings.getCellSize().getBitshift());
-        this.currentGridPos.setBitshift(gridSettings.getCellSize().getBitshift());
-
-        // set the location, forcing a reload to begin loading the cells.
-        setLocation(currentGridPos.toWorldTranslation(), true);
+        pager.refresh();
     }
 
     public void refreshViewDistance() {
-        setLocation(currentGridPos.toWorldTranslation(), true);
+        pager.refreshViewDistance();
     }
 
-    public void setLocation(Vector3f location) {
-        setLocation(location, false);
+    /**
+     * Gets the pager that loads and unloads the cells of this grid.
+     * @return the pager of this grid.
+     */
+    public CellPager<GridCell> getPager() {
+        return pager;
     }
 
-    public void setLocation(Vector3f location, boolean forceUpdate) {
-        currentGridPos.set(location);
-
-        // if the last grid position equals the current grid position, nothing needs to be done.
-        // Unless we demand an update
-        if (lastGridPos.equals(currentGridPos) && !forceUpdate) {
-            return;
-        }
-
-        // iterate over the view distance and add each grid position to a required list regardless of whether it's loaded or not..
-        for (int x = currentGridPos.getX() - gridSettings.getViewDistance(); x <= currentGridPos.getX() + gridSettings.getViewDistance(); x++) {
-            for (int z = currentGridPos.getZ() - gridSettings.getViewDistance(); z <= currentGridPos.getZ() + gridSettings.getViewDistance(); z++) {
-                requiredCells.add(new GridPos2i(x, z, gridSettings.getCellSize().getBitshift()));
-            }
-        }
-
-        // clear the list of current cell additions.
-        // if we got this far, we need an entirely new set of cells than any other previous call.
-        cellAdditions.clear();
-
-        // load cells we do need.
-        // just blanket request all cells in our view distance.
-        // the method that processes this list will not load any cells that already exist.
-        cellAdditions.addAll(requiredCells);
+    public Vector3f getViewDirection() {
+        return pager.getLocalFollower().getDirection();
+    }
 
-        // if we remove the required cells from the loaded cells, we end up with a list of
-        // cells we don't want anymore.
-        unneededCells.addAll(loadedCells.keySet().stream()
-                .filter(key -> !requiredCells.contains(key))
-                .collect(Collectors.toList()));
+    /**
+     * Sets the direction the follower is looking. Cells in front of the follower are given a higher loading
+     * priority than cells behind it. The new direction is taken into account the next time the grid moves.
+     * Only used when the grid is located with {@link #setLocation(Vector3f)}.
+     * @param viewDirection the direction the follower is looking.
+     */
+    public void setViewDirection(Vector3f viewDirection) {
+        pager.getLocalFollower().setDirection(viewDirection);
+    }
 
-        cellRemovals.addAll(unneededCells);
+    public Vector3f getFollowerVelocity() {
+        return pager.getLocalFollower().getVelocity();
+    }
 
-        // tidy up after ourselves.
-        requiredCells.clear();
-        unneededCells.clear();
+    /**
+     * Sets the velocity of the follower in world units per second. If the grid settings enable prefetching, the
+     * region of loaded cells is moved ahead of the follower in the direction of travel so cells in front are loaded
+     * before they are needed. The new velocity is taken into account the next time the grid is located.
+     * Only used when the grid is located with {@link #setLocation(Vector3f)}.
+     * @param followerVelocity the velocity of the follower.
+     * @see GridSettings#setPrefetchTime(float)
+     */
+    public void setFollowerVelocity(Vector3f followerVelocity) {
+        pager.getLocalFollower().setVelocity(followerVelocity);
+    }
 
-        // set our last position to the set position.
-        lastGridPos.set(currentGridPos);
+    public void setLocation(Vector3f location) {
+        pager.setLocation(location);
+    }
 
-        // start the co-routine to remove and generate cells.
-        // if one is already running, stop it because it's invalid now.
+    /**
+     * Loads the cells around a single location. Any followers set previously are released.
+     * @param location    the location to load cells around.
+     * @param forceUpdate whether or not to re-visit every cell even if the location has not changed.
+     */
+    public void setLocation(Vector3f location, boolean forceUpdate) {
+        pager.setLocation(location, forceUpdate);
+    }
 
+    public List<Follower> getFollowers() {
+        return pager.getFollowers();
+    }
 
+    /**
+     * Loads the cells that are in view of any of the given followers.
+     * @param followers the followers to load cells around.
+     * @see CellPager#setFollowers(List, boolean)
+     */
+    public void setFollowers(List<Follower> followers) {
+        pager.setFollowers(followers);
     }
 
     public GridCell getLoadedCell(GridPos2i gridPos) {
-        return loadedCells.get(gridPos);
+        return pager.getLoadedCell(gridPos);
     }
 
     public int getTotalCellCount() {
@@ -178,115 +147,151 @@ public abstract class SceneGrid extends BaseAppState {
     }
 
     public int getLoadedCellCount() {
-        return loadedCells.values().stream()
-                .mapToInt(gridCell -> (gridCell == null) ? 0 : 1).sum();
+        return pager.getLoadedCellCount();
     }
 
     public int getAwaitingAdditions() {
-        return this.cellAdditions.size();
+        return pager.getAwaitingAdditions();
     }
 
-    @Override protected void initialize(Application app) { }
-    @Override protected void cleanup(Application app) { }
-    @Override protected void onEnable() { }
-    @Override protected void onDisable() { }
-
-    @Override
-    public void update(float tpf) {
-
-        updateThreadpool();
-
-        while (cellRemovals.size() > 0) {
-            GridPos2i pos = cellRemovals.iterator().next();
-            cellRemovals.remove(pos);
-
-            GridCell cell = loadedCells.get(pos);
-
-            if (cell != null) {
-                loadedCells.remove(pos);
-                // Destroy(cell.GameObject);
-                cell.destroy();
-
-                // only iterate if we've actually removed a cell.
-                removalIterations++;
-            }
-
-            // if we've removed the maximum amount this frame, wait until the next frame.
-            if (removalIterations % gridSettings.getRemovalsPerFrame() == 0) {
-                // yield return null;
-                return;
-            }
-        }
-
-        // reset the removal count.
-        removalIterations = 0;
-
-        while (cellAdditions.size() > 0) {
-            GridPos2i pos = cellAdditions.iterator().next();
-            cellAdditions.remove(pos);
+    /**
+     * Gets the amount of cell builds that were cancelled before they started because the cell left the view.
+     * @return the amount of builds that were avoided.
+     */
+    public long getCancelledBuildCount() {
+        return pager.getCancelledBuildCount();
+    }
 
-            // if this position is loading or already loaded, ignore the cell load request.
-            if (loadingCells.contains(pos) || loadedCells.containsKey(pos)) {
-                continue;
-            }
+    /**
+     * Gets the amount of cell builds that had already started when the cell left the view.
+     * The result of these builds was thrown away.
+     * @return the amount of builds that were wasted.
+     */
+    public long getDiscardedBuildCount() {
+        return pager.getDiscardedBuildCount();
+    }
 
-            loadingCells.add(pos);
-            ThreadedWorker worker = new ThreadedWorker(pos, this);
-            submittedTasks.add(world.getThreadPool().submit(worker));
-            // worker.Start();
+    /**
+     * Gets the amount of cell builds that threw an exception.
+     * @return the amount of builds that failed.
+     */
+    public long getFailedBuildCount() {
+        return pager.getFailedBuildCount();
+    }
 
-            additionIterations++;
+    /**
+     * Gets the amount of cells that came back into view and were taken from the cache instead of being built.
+     * @return the amount of cache hits.
+     */
+    public long getCacheHits() {
+        return pager.getCacheHits();
+    }
 
-            // if we've added the maximum amount this frame, wait until the next frame.
-            if (additionIterations % gridSettings.getAdditionsPerFrame() == 0) {
-                return;
-            }
-        }
+    /**
+     * Gets the amount of cells that came into view and were not in the cache.
+     * Only counted while the cache is enabled.
+     * @return the amount of cache misses.
+     */
+    public long getCacheMisses() {
+        return pager.getCacheMisses();
+    }
 
-        // reset the addition count.
-        additionIterations = 0;
+    /**
+     * Gets the ratio of cells that were taken from the cache instead of being built.
+     * @return the cache hit rate between 0 and 1.
+     */
+    public float getCacheHitRate() {
+        return pager.getCacheHitRate();
+    }
 
+    /**
+     * Gets the amount of blocks of far cells that are drawn as a batch.
+     * @return the amount of batches in the scene.
+     * @see GridSettings#setBatchSize(int)
+     */
+    public int getBatchCount() {
+        return batcher.getBatchCount();
     }
 
-    private void updateThreadpool() {
+    /**
+     * Gets the amount of cells that are drawn as part of a batch instead of by their own node.
+     * @return the amount of batched cells.
+     */
+    public int getBatchedCellCount() {
+        return batcher.getBatchedCellCount();
+    }
 
-        submittedTasks.removeIf(future -> {
+    public int getCachedCellCount() {
+        return pager.getCachedCellCount();
+    }
 
-            if (future.isCancelled()) {
-                return true;
-            }
+    public long getCachedBytes() {
+        return pager.getCachedBytes();
+    }
 
-            if (future.isDone()) {
+    @Override protected void initialize(Application app) { }
+    @Override protected void cleanup(Application app) { }
+    @Override protected void onEnable() { }
+    @Override protected void onDisable() { }
 
-                ThreadedWorker worker;
+    @Override
+    public void update(float tpf) {
+        pager.tick();
+        batcher.update(tpf);
+    }
 
-                try {
-                    worker = future.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    ex.printStackTrace();
-                    throw new RuntimeException(ex);
-                }
+    /**
+     * Called by the grid when it changes what a loaded cell shows, for example its level of detail. If the cell is
+     * part of a batch, the batch is split and built again later.
+     * @param cell the cell that changed.
+     */
+    protected void cellChanged(GridCell cell) {
+        batcher.cellChanged(cell);
+    }
 
-                if (worker != null) {
-                    applyCell(worker.getGridCell(), worker.getData());
-                    addLoadedCell(worker.getGridCell());
-                    removeLoadingCell(worker.getGridCell().getGridPos());
-                }
+    /**
+     * Called when a cell that came back into view was taken from the cache and put back in the scene.
+     * @param cell the cell that was put back.
+     */
+    protected void cellReattached(GridCell cell) {
 
-                return true;
-            }
+    }
 
-            return false;
-        });
+    /**
+     * Called when an exception was thrown while building a cell. The cell is not loaded, and will be requested again
+     * the next time it comes into view.
+     * @param gridPos the grid position of the cell that failed.
+     * @param failure the exception that was thrown.
+     */
+    protected void cellFailed(GridPos2i gridPos, Throwable failure) {
+        log.error("Error building cell " + gridPos + " in grid " + getName(), failure);
+    }
 
+    /**
+     * Gets the amount of milliseconds this grid may spend applying, attaching and destroying cells each frame.
+     * @return the per-frame allowance in milliseconds. Zero or less if the grid uses per-frame cell counts.
+     */
+    public float getFrameAllowance() {
+        return pager.getFrameAllowance();
     }
 
-    protected void addLoadedCell(GridCell cell) {
-        loadedCells.put(cell.getGridPos(), cell);
+    /**
+     * Sets the amount of milliseconds this grid may spend applying, attaching and destroying cells each frame.
+     * Any work left over is carried to the next frame. When an allowance is set, the per-frame addition and removal
+     * counts in the grid settings are ignored. This is usually set by the world if it has a frame budget.
+     * @param frameAllowance the per-frame allowance in milliseconds, or zero to use per-frame cell counts.
+     * @see com.jayfella.jme.worldpager.world.WorldSettings#setFrameBudget(float)
+     */
+    public void setFrameAllowance(float frameAllowance) {
+        pager.setFrameAllowance(frameAllowance);
     }
 
-    protected void removeLoadingCell(GridPos2i gridPos) {
-        loadingCells.remove(gridPos);
+    /**
+     * Gets the amount of outstanding main-thread work this grid has. Used to share a frame budget between grids.
+     * @return the amount of cells being built or waiting to be removed.
+     */
+    public int getPendingWork() {
+        return pager.getPendingWork();
     }
 
     /**
@@ -307,4 +312,65 @@ public abstract class SceneGrid extends BaseAppState {
         return getName();
     }
 
+    /**
+     * Wraps each cell in a node. The node is created on the worker thread along with the generated data, and the
+     * data is handed to {@link #applyCell(GridCell, Object[])} on the render thread.
+     */
+    private final class SceneCellHandler implements CellHandler<GridCell> {
+
+        @Override
+        public GridCell buildCell(GridPos2i gridPos) {
+
+            Node cellNode = new Node("Cell: " + gridPos.toString());
+            cellNode.setLocalTranslation(gridPos.toWorldTranslation());
+
+            GridCell gridCell = new GridCell(gridPos, cellNode, SceneGrid.this);
+            gridCell.setPendingData(SceneGrid.this.buildCell(gridPos));
+
+            return gridCell;
+        }
+
+        @Override
+        public void applyCell(GridPos2i gridPos, GridCell cell) {
+            SceneGrid.this.applyCell(cell, cell.takePendingData());
+            batcher.cellAdded(cell);
+        }
+
+        @Override
+        public void destroyCell(GridCell cell) {
+            // Destroy(cell.GameObject);
+            batcher.cellRemoved(cell);
+            cell.destroy();
+        }
+
+        @Override
+        public void discardCell(GridCell cell) {
+            cell.discard();
+        }
+
+        @Override
+        public void cellFailed(GridPos2i gridPos, Throwable failure) {
+            SceneGrid.this.cellFailed(gridPos, failure);
+        }
+
+        @Override
+        public void detachCell(GridCell cell) {
+            // the cell must be back in the scene before it can be detached.
+            batcher.cellRemoved(cell);
+            cell.detach();
+        }
+
+        @Override
+        public void reattachCell(GridCell cell) {
+            cell.reattach(getGridNode());
+            batcher.cellAdded(cell);
+            SceneGrid.this.cellReattached(cell);
+        }
+
+        @Override
+        public long getCellBytes(GridCell cell) {
+            return cell.getPayloadBytes();
+        }
+    }
+
 }
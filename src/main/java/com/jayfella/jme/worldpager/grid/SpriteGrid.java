@@ -101,10 +101,13 @@ public class SpriteGrid extends SceneGrid implements PlottedGrid {
     public Object[] buildCell(GridPos2i gridPos) {
 
         float[] heightmap = extractHeightMap(gridPos);
-        HeightMapMesh groundMeshData = new HeightMapMesh(heightmap);
+        HeightMapMesh groundMeshData = new HeightMapMesh(heightmap, getWorld().getIntraCellExecutor());
 
         Geometry geometry = build(gridPos, groundMeshData);
 
+        // the ground is only used to plot the sprites.
+        groundMeshData.release();
+
         return new Object[] { geometry };
     }
 
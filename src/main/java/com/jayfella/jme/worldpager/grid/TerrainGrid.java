@@ -1,20 +1,51 @@
 package com.jayfella.jme.worldpager.grid;
 
+import com.jayfella.jme.worldpager.core.CompactHeightMapMesh;
 import com.jayfella.jme.worldpager.core.GridPos2i;
 import com.jayfella.jme.worldpager.core.GridSettings;
 import com.jayfella.jme.worldpager.core.HeightMapMesh;
 import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+import com.jayfella.jme.worldpager.core.SimplifiedHeightMapMesh;
+import com.jayfella.jme.worldpager.world.Follower;
 import com.jayfella.jme.worldpager.world.World;
 import com.jme3.app.Application;
 import com.jme3.material.Material;
+import com.jme3.math.Vector3f;
 import com.jme3.scene.Geometry;
 import com.jme3.scene.Mesh;
 import com.jme3.scene.Node;
+import com.jme3.scene.Spatial;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class TerrainGrid extends SceneGrid {
 
+    private static final Logger log = LoggerFactory.getLogger(TerrainGrid.class);
+
     private Material material;
 
+    private boolean compactMeshes;
+    private float heightStep = 1f / 32f;
+
+    private boolean lodEnabled;
+    private float skirtDepth = 1f;
+
+    private float simplificationError;
+
+    // the cells of the followers, for the worker threads to choose the level of detail of a new cell.
+    private volatile long[] followerCells = new long[0];
+    private int lodViewVersion = -1;
+
+    // levels of detail being built for loaded cells, and the ones that are done.
+    private final Set<GridCell> pendingLods = new HashSet<>();
+    private final Queue<LodBuild> finishedLods = new ConcurrentLinkedQueue<>();
+
     public TerrainGrid(World world, GridSettings gridSettings) {
         super(world, gridSettings);
 
@@ -30,18 +61,141 @@ public class TerrainGrid extends SceneGrid {
 
     public void setMaterial(Material material) {
         this.material = material;
+        applyHeightStep();
+    }
+
+    public boolean isCompactMeshes() {
+        return compactMeshes;
+    }
+
+    /**
+     * Sets whether or not the cells are built as compact meshes, which only store a quantized height and a packed
+     * normal per vertex. Compact meshes must be rendered with the MatDefs/CompactTrilinearLighting.j3md material.
+     * Only cells built after this call are affected, so this is usually set before the grid is attached.
+     * @param compactMeshes whether or not to build compact meshes.
+     * @see CompactHeightMapMesh
+     */
+    public void setCompactMeshes(boolean compactMeshes) {
+        this.compactMeshes = compactMeshes;
+    }
+
+    public float getHeightStep() {
+        return heightStep;
+    }
+
+    /**
+     * Sets the height of one quantization step of a compact mesh. Should be a power of two so the edges of
+     * neighbouring cells line up, and small enough for the terrain to look smooth. A cell can hold heights up to
+     * {@link CompactHeightMapMesh#MAX_STEPS} steps above its lowest point. The HeightStep parameter of the material
+     * is set to match.
+     * @param heightStep the height of one step in world units.
+     */
+    public void setHeightStep(float heightStep) {
+        this.heightStep = heightStep;
+        applyHeightStep();
+    }
+
+    public boolean isLodEnabled() {
+        return lodEnabled;
+    }
+
+    /**
+     * Sets whether or not cells further from the followers are built with less vertices. The level of detail of a
+     * cell is chosen by {@link #getLodLevelFromDistance(int)} and changes as the followers move. Other levels are
+     * built from the heightmap the cell keeps, so the noise is never evaluated again. Cells are given skirts to hide
+     * the cracks between levels. Only cells built after this call are affected, so this is usually set before the
+     * grid is attached.
+     * @param lodEnabled whether or not to build cells at lower levels of detail.
+     */
+    public void setLodEnabled(boolean lodEnabled) {
+        this.lodEnabled = lodEnabled;
+    }
+
+    public float getSkirtDepth() {
+        return skirtDepth;
+    }
+
+    /**
+     * Sets the least distance the skirts of a cell hang down below its edges when levels of detail are enabled.
+     * The skirt is made deeper by however far the edges of the levels can drift apart.
+     * @param skirtDepth the least depth of a skirt in world units.
+     */
+    public void setSkirtDepth(float skirtDepth) {
+        this.skirtDepth = skirtDepth;
+    }
+
+    public float getSimplificationError() {
+        return simplificationError;
+    }
+
+    /**
+     * Sets how far the terrain may drift from the heightmap when cells are simplified. A cell is built with as few
+     * triangles as it takes to stay within this distance of every height, which leaves flat areas with far fewer
+     * triangles. The edges of a cell are kept at full resolution so they still line up with their neighbours.
+     * Compact meshes are never simplified. Only cells built after this call are affected.
+     * @param simplificationError the largest vertical error in world units, or zero to build regular meshes.
+     * @see SimplifiedHeightMapMesh
+     */
+    public void setSimplificationError(float simplificationError) {
+        this.simplificationError = simplificationError;
+    }
+
+    private void applyHeightStep() {
+        if (material != null && material.getMaterialDef().getMaterialParam("HeightStep") != null) {
+            material.setFloat("HeightStep", heightStep);
+        }
     }
 
     @Override
     public Object[] buildCell(GridPos2i gridPos) {
 
         float[] heightmap = extractHeightMap(gridPos);
-        Mesh mesh = new HeightMapMesh(heightmap);
+        int lodLevel = lodEnabled ? getLodLevel(getFollowerDistance(gridPos)) : 0;
+
+        Mesh mesh = createMesh(heightmap, lodLevel);
 
         Geometry geometry = new Geometry("Terrain Cell: " + gridPos, mesh);
         geometry.setMaterial(material);
+        moveToBaseHeight(geometry);
 
-        return new Object[] { geometry };
+        return new Object[] { geometry, heightmap, lodLevel };
+    }
+
+    private Mesh createMesh(float[] heightmap, int lodLevel) {
+
+        // a skirt deep enough to cover the gap to a neighbour of any level. The edge error doesn't always grow with the
+        // level, so the neighbour could be at whichever level drifts the furthest.
+        float skirt = lodEnabled
+                ? skirtDepth + HeightMapMesh.getEdgeError(heightmap, lodLevel) + getMaxEdgeError(heightmap)
+                : 0;
+
+        if (compactMeshes) {
+            return new CompactHeightMapMesh(heightmap, heightStep, lodLevel, skirt, getWorld().getIntraCellExecutor());
+        }
+        else if (simplificationError > 0) {
+            return new SimplifiedHeightMapMesh(heightmap, simplificationError, lodLevel, skirt);
+        }
+        else {
+            return new HeightMapMesh(heightmap, lodLevel, skirt, getWorld().getIntraCellExecutor());
+        }
+    }
+
+    private float getMaxEdgeError(float[] heightmap) {
+
+        float error = 0;
+
+        for (int lodLevel = 1; lodLevel <= getMaxLodLevel(); lodLevel++) {
+            error = Math.max(error, HeightMapMesh.getEdgeError(heightmap, lodLevel));
+        }
+
+        return error;
+    }
+
+    // the heights of compact meshes are relative to their base height.
+    private void moveToBaseHeight(Geometry geometry) {
+        if (geometry.getMesh() instanceof CompactHeightMapMesh) {
+            geometry.setLocalTranslation(0, ((CompactHeightMapMesh) geometry.getMesh()).getBaseHeight(), 0);
+        }
     }
 
     @Override
@@ -50,6 +204,191 @@ public class TerrainGrid extends SceneGrid {
         Geometry geometry = (Geometry) data[0];
         cell.getCellNode().attachChild(geometry);
         getGridNode().attachChild(cell.getCellNode());
+
+        if (lodEnabled) {
+
+            int lodLevel = (int) data[2];
+
+            Mesh[] lodMeshes = new Mesh[getMaxLodLevel() + 1];
+            lodMeshes[lodLevel] = geometry.getMesh();
+
+            cell.setHeightMap((float[]) data[1]);
+            cell.setLodLevel(lodLevel);
+            cell.setLodMeshes(lodMeshes);
+
+            // the followers may have moved while the cell was being built.
+            updateLod(cell);
+        }
+    }
+
+    @Override
+    protected void cellReattached(GridCell cell) {
+
+        // the followers may have moved while the cell was in the cache.
+        if (lodEnabled) {
+            updateLod(cell);
+        }
+    }
+
+    @Override
+    public void update(float tpf) {
+
+        // before the pager starts any builds, so new cells are built at the right level.
+        if (lodEnabled) {
+            updateFollowerCells();
+        }
+
+        super.update(tpf);
+
+        if (lodEnabled) {
+            updateLods();
+        }
+    }
+
+    private void updateFollowerCells() {
+
+        List<Follower> followers = getFollowers();
+        int bitshift = getGridSettings().getCellSize().getBitshift();
+
+        long[] cells = followerCells;
+        boolean changed = cells.length != followers.size();
+
+        for (int i = 0; i < followers.size() && !changed; i++) {
+            changed = cells[i] != getCellKey(followers.get(i), bitshift);
+        }
+
+        if (changed) {
+
+            cells = new long[followers.size()];
+
+            for (int i = 0; i < cells.length; i++) {
+                cells[i] = getCellKey(followers.get(i), bitshift);
+            }
+
+            followerCells = cells;
+        }
+    }
+
+    private static long getCellKey(Follower follower, int bitshift) {
+        Vector3f location = follower.getLocation();
+        return GridPos2i.toKey((int) location.x >> bitshift, (int) location.z >> bitshift);
+    }
+
+    private void updateLods() {
+
+        LodBuild build;
+
+        while ((build = finishedLods.poll()) != null) {
+
+            pendingLods.remove(build.cell);
+
+            if (build.mesh == null) {
+                log.error("Error building level of detail " + build.lodLevel + " of cell " + build.cell.getGridPos(), build.failure);
+            }
+            else if (build.cell.isDestroyed()) {
+                releaseMesh(build.mesh);
+            }
+            else {
+                Mesh[] lodMeshes = build.cell.getLodMeshes();
+                lodMeshes[build.lodLevel] = build.mesh;
+                build.cell.setLodMeshes(lodMeshes);
+
+                updateLod(build.cell);
+            }
+        }
+
+        // only look at every cell when a follower has moved to another cell.
+        if (getPager().getViewVersion() != lodViewVersion) {
+            lodViewVersion = getPager().getViewVersion();
+            getPager().forEachLoadedCell(this::updateLod);
+        }
+    }
+
+    // switches the cell to the level of detail it should be at, building the level first if it has to.
+    private void updateLod(GridCell cell) {
+
+        Mesh[] lodMeshes = cell.getLodMeshes();
+
+        if (lodMeshes == null) {
+            return;
+        }
+
+        GridPos2i gridPos = cell.getGridPos();
+        int lodLevel = getLodLevel(getPager().getFollowerDistance(gridPos.getX(), gridPos.getZ()));
+
+        if (lodLevel == cell.getLodLevel()) {
+            return;
+        }
+
+        if (lodMeshes[lodLevel] != null) {
+
+            Spatial child = cell.getCellNode().getChild(0);
+
+            if (child instanceof Geometry) {
+                Geometry geometry = (Geometry) child;
+                geometry.setMesh(lodMeshes[lodLevel]);
+                moveToBaseHeight(geometry);
+                cell.setLodLevel(lodLevel);
+                cellChanged(cell);
+            }
+        }
+        else if (pendingLods.add(cell)) {
+
+            float[] heightmap = cell.getHeightMap();
+
+            getWorld().getThreadPool().execute(() -> {
+                try {
+                    finishedLods.add(new LodBuild(cell, lodLevel, createMesh(heightmap, lodLevel), null));
+                }
+                catch (Throwable t) {
+                    finishedLods.add(new LodBuild(cell, lodLevel, null, t));
+                }
+            });
+        }
+    }
+
+    private static void releaseMesh(Mesh mesh) {
+        if (mesh instanceof HeightMapMesh) {
+            ((HeightMapMesh) mesh).release();
+        }
+        else if (mesh instanceof CompactHeightMapMesh) {
+            ((CompactHeightMapMesh) mesh).release();
+        }
+        else if (mesh instanceof SimplifiedHeightMapMesh) {
+            ((SimplifiedHeightMapMesh) mesh).release();
+        }
+    }
+
+    private int getFollowerDistance(GridPos2i gridPos) {
+
+        int distance = Integer.MAX_VALUE;
+
+        for (long key : followerCells) {
+            int dx = Math.abs(gridPos.getX() - GridPos2i.keyToX(key));
+            int dz = Math.abs(gridPos.getZ() - GridPos2i.keyToZ(key));
+            distance = Math.min(distance, Math.max(dx, dz));
+        }
+
+        return distance;
+    }
+
+    /**
+     * Gets the level of detail of a cell at the given distance, limited to the levels the cell size allows.
+     * @param distance the distance in cells from the nearest follower.
+     * @return the level of detail of the cell.
+     */
+    public int getLodLevel(int distance) {
+        return Math.min(getLodLevelFromDistance(distance), getMaxLodLevel());
+    }
+
+    /**
+     * Gets the lowest level of detail a cell of this grid can be built at.
+     * Each level halves the amount of vertices along each side of a cell, down to a single quad.
+     * @return the highest level of detail number.
+     */
+    public int getMaxLodLevel() {
+        int size = getGridSettings().getCellSize().getSize();
+        return Math.min(getLodLevelFromDistance(Integer.MAX_VALUE), Integer.numberOfTrailingZeros(size));
     }
 
     @Override
@@ -62,6 +401,11 @@ public class TerrainGrid extends SceneGrid {
 
     }
 
+    /**
+     * Gets the level of detail of a cell from its distance to the nearest follower.
+     * @param distance the distance in cells from the nearest follower.
+     * @return the level of detail, where zero is full resolution.
+     */
     public static int getLodLevelFromDistance(int distance) {
         switch (distance) {
             case 0:
@@ -71,4 +415,19 @@ public class TerrainGrid extends SceneGrid {
         }
     }
 
+    private static final class LodBuild {
+
+        private final GridCell cell;
+        private final int lodLevel;
+        private final Mesh mesh;
+        private final Throwable failure;
+
+        private LodBuild(GridCell cell, int lodLevel, Mesh mesh, Throwable failure) {
+            this.cell = cell;
+            this.lodLevel = lodLevel;
+            this.mesh = mesh;
+            this.failure = failure;
+        }
+    }
+
 }
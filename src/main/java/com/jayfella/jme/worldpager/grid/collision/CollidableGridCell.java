@@ -3,32 +3,69 @@ package com.jayfella.jme.worldpager.grid.collision;
 import com.jayfella.jme.worldpager.core.GridPos2i;
 import com.jme3.bullet.control.RigidBodyControl;
 
-import java.util.function.Supplier;
-
-public class CollidableGridCell implements Supplier<CollidableGridCell> {
+/**
+ * A request to build the rigid body of a collision cell. Requests are built in order of their priority, lowest first,
+ * and in the order they were made when their priorities are the same.
+ */
+public class CollidableGridCell implements Runnable, Comparable<CollidableGridCell> {
 
     private final GridPos2i gridPos;
     private final CollisionGrid collisionGrid;
+    private final long sequence;
+
+    // only changed while the request isn't queued.
+    private float priority;
 
-    private RigidBodyControl result;
+    private volatile boolean cancelled;
 
-    CollidableGridCell(GridPos2i gridPos, CollisionGrid collisionGrid) {
+    CollidableGridCell(GridPos2i gridPos, CollisionGrid collisionGrid, long sequence) {
         this.gridPos = gridPos;
         this.collisionGrid = collisionGrid;
+        this.sequence = sequence;
     }
 
     GridPos2i getGridPos() {
         return gridPos;
     }
 
-    RigidBodyControl getResult() {
-        return result;
+    float getPriority() {
+        return priority;
+    }
+
+    void setPriority(float priority) {
+        this.priority = priority;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    @Override
+    public void run() {
+
+        // the cell may have been dropped after it was taken from the queue.
+        if (cancelled) {
+            return;
+        }
+
+        RigidBodyControl result = null;
+        Throwable failure = null;
+
+        try {
+            result = collisionGrid.positionRequestedAsync(gridPos);
+        }
+        catch (Throwable t) {
+            failure = t;
+        }
+
+        collisionGrid.cellBuilt(this, result, failure);
     }
 
     @Override
-    public CollidableGridCell get() {
-        this.result = collisionGrid.positionRequestedAsync(gridPos);
-        return this;
+    public int compareTo(CollidableGridCell other) {
+
+        int compare = Float.compare(priority, other.priority);
+        return compare != 0 ? compare : Long.compare(sequence, other.sequence);
     }
 
 }
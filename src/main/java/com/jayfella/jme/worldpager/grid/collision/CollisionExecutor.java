@@ -0,0 +1,61 @@
+package com.jayfella.jme.worldpager.grid.collision;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the cells of a {@link CollisionGrid} on threads of its own, most important first.
+ *
+ * Collision cells are needed before a collider reaches them or it falls through the world, so they are never queued
+ * behind scene generation. Waiting cells are ordered by their priority, which is how soon the nearest collider could
+ * reach them. A cell that is no longer needed can be taken back out of the queue before it is built.
+ */
+public class CollisionExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates an executor with the given amount of threads.
+     * @param numThreads the amount of threads that build collision cells at the same time.
+     */
+    public CollisionExecutor(int numThreads) {
+
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+
+        this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+    }
+
+    public int getNumThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Gets the amount of cells waiting to be built.
+     * @return the amount of queued cells.
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    void submit(CollidableGridCell cell) {
+        executor.execute(cell);
+    }
+
+    /**
+     * Takes a cell out of the queue.
+     * @param cell the cell to take out.
+     * @return true if the cell was still waiting, false if it has been built or is being built.
+     */
+    boolean remove(CollidableGridCell cell) {
+        return executor.remove(cell);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+}
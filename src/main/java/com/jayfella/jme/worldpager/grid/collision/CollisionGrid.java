@@ -7,12 +7,12 @@ import com.jme3.app.Application;
 import com.jme3.app.state.BaseAppState;
 import com.jme3.bullet.PhysicsSpace;
 import com.jme3.bullet.control.RigidBodyControl;
+import com.jme3.math.Vector3f;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.function.BiConsumer;
 
 /**
  * A pool of RigidBodies shared by many consumers which avoids multiples of the same rigidbodies
@@ -23,7 +23,9 @@ import java.util.function.BiConsumer;
  */
 public abstract class CollisionGrid extends BaseAppState {
 
-    // private static final Logger log = LoggerFactory.getLogger(CollisionGrid.class);
+    private static final Logger log = LoggerFactory.getLogger(CollisionGrid.class);
+
+    private static final int DEFAULT_THREADS = 2;
 
     // private final Application app;
     private final World world;
@@ -33,11 +35,16 @@ public abstract class CollisionGrid extends BaseAppState {
 
     // we have our own executor here because collisions don't want to be swamped
     // behind any scene generation tasks.
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
-    private final BiConsumer<CollidableGridCell, Throwable> consumer;
+    private CollisionExecutor executor = new CollisionExecutor(DEFAULT_THREADS);
 
     private final Map<GridPos2i, RigidBodyControl> pooledRigidBodies = new HashMap<>();
-    private final Set<GridPos2i> requiredPositions = new HashSet<>();
+
+    // the positions the colliders need this frame, and the most urgent priority any of them gave.
+    private final Map<GridPos2i, Float> requiredPositions = new HashMap<>();
+
+    // the cells that have been requested but not added yet.
+    private final Map<GridPos2i, CollidableGridCell> pendingCells = new HashMap<>();
+    private long requestCount;
 
     private String name;
 
@@ -45,7 +52,6 @@ public abstract class CollisionGrid extends BaseAppState {
 
         this.world = world;
         this.physicsSpace = physicsSpace;
-        this.consumer = createConsumer();
 
         setCellSize(cellSize);
 
@@ -58,7 +64,48 @@ public abstract class CollisionGrid extends BaseAppState {
 
     public void setCellSize(CellSize cellSize) {
         this.cellSize = cellSize;
+
+        pooledRigidBodies.values().forEach(rigidBodyControl -> {
+            if (rigidBodyControl != null) {
+                physicsSpace.remove(rigidBodyControl);
+            }
+        });
+
         pooledRigidBodies.clear();
+
+        pendingCells.values().forEach(this::dropCell);
+        pendingCells.clear();
+    }
+
+    public int getNumThreads() {
+        return executor.getNumThreads();
+    }
+
+    /**
+     * Sets how many threads build collision cells at the same time. The threads are only used by this grid, so
+     * collision cells are never held up by scene generation. Cells that are waiting are moved to the new threads.
+     * @param numThreads the amount of threads that build collision cells.
+     */
+    public void setNumThreads(int numThreads) {
+
+        CollisionExecutor oldExecutor = executor;
+        executor = new CollisionExecutor(numThreads);
+
+        for (CollidableGridCell cell : pendingCells.values()) {
+            if (oldExecutor.remove(cell)) {
+                executor.submit(cell);
+            }
+        }
+
+        oldExecutor.shutdown();
+    }
+
+    /**
+     * Gets the amount of collision cells waiting to be built.
+     * @return the amount of queued cells.
+     */
+    public int getQueuedCount() {
+        return executor.getQueuedCount();
     }
 
     public World getWorld() {
@@ -72,29 +119,54 @@ public abstract class CollisionGrid extends BaseAppState {
     public String getName() { return name; }
     public void setName(String name) { this.name = name; }
 
-    private BiConsumer<CollidableGridCell, Throwable> createConsumer() {
-        return (gridSection, throwable) -> {
+    // called on the collision threads.
+    void cellBuilt(CollidableGridCell cell, RigidBodyControl rigidBodyControl, Throwable failure) {
 
-            if (throwable == null) {
-                world.getApplication().enqueue(() -> {
-                    addRigidBody(gridSection.getGridPos(), gridSection.getResult());
-                });
-            }
-            else {
-                throwable.printStackTrace();
-                // log.error("Error creating collision cell", throwable);
-            }
-        };
+        if (failure != null) {
+            log.error("Error creating collision cell " + cell.getGridPos() + " in grid " + getName(), failure);
+        }
+
+        world.getApplication().enqueue(() -> addRigidBody(cell, rigidBodyControl));
     }
 
-    private void addRigidBody(GridPos2i gridPos, RigidBodyControl rigidBodyControl) {
+    private void addRigidBody(CollidableGridCell cell, RigidBodyControl rigidBodyControl) {
+
+        GridPos2i gridPos = cell.getGridPos();
+
+        // the cell was dropped while it was being built.
+        if (pendingCells.get(gridPos) != cell) {
+            return;
+        }
+
+        pendingCells.remove(gridPos);
 
         if (rigidBodyControl != null) {
-            rigidBodyControl.setPhysicsLocation(gridPos.toWorldTranslation());
+            rigidBodyControl.setPhysicsLocation(getCellLocation(gridPos, rigidBodyControl));
             this.pooledRigidBodies.put(gridPos, rigidBodyControl);
             this.physicsSpace.add(rigidBodyControl);
         }
+        else {
+            // the cell failed, so it can be requested again.
+            this.pooledRigidBodies.remove(gridPos);
+        }
+
+    }
 
+    private void dropCell(CollidableGridCell cell) {
+        cell.cancel();
+        executor.remove(cell);
+    }
+
+    /**
+     * Gets the location the rigid body of a cell is placed at. By default this is the corner of the cell, which
+     * suits shapes built relative to the corner. Shapes that are centered on their origin must be moved to the
+     * center of the cell instead.
+     * @param gridPos          the grid position of the cell.
+     * @param rigidBodyControl the rigid body built for the cell.
+     * @return the physics location of the rigid body.
+     */
+    protected Vector3f getCellLocation(GridPos2i gridPos, RigidBodyControl rigidBodyControl) {
+        return gridPos.toWorldTranslation();
     }
 
     public boolean positionGenerated(GridPos2i gridPos2i) {
@@ -115,36 +187,85 @@ public abstract class CollisionGrid extends BaseAppState {
     }
 
     public void addRequiredPositions(Collection<GridPos2i> requiredPositions) {
-        this.requiredPositions.addAll(requiredPositions);
+        for (GridPos2i gridPos : requiredPositions) {
+            this.requiredPositions.put(gridPos, 0f);
+        }
+    }
+
+    /**
+     * Marks the given positions as needed this frame, along with how soon the collider could reach each of them.
+     * Cells that are still waiting to be built are ordered by the most urgent collider that needs them.
+     * @param requiredPositions the positions needed by a collider, and their priorities.
+     * @see #positionRequested(GridPos2i, float)
+     */
+    public void addRequiredPositions(Map<GridPos2i, Float> requiredPositions) {
+        requiredPositions.forEach((gridPos, priority) -> this.requiredPositions.merge(gridPos, priority, Math::min));
     }
 
     public void positionRequested(GridPos2i gridPos) {
+        positionRequested(gridPos, 0);
+    }
+
+    /**
+     * Requests the rigid body of a cell. Cells are built lowest priority first, so the priority should be how soon a
+     * collider could reach the cell. A more urgent request moves a waiting cell forward straight away. Each frame the
+     * waiting cells are given the most urgent priority of the colliders that still need them.
+     * @param gridPos  the grid position of the cell.
+     * @param priority the priority of the cell, lowest first.
+     * @see #addRequiredPositions(Map)
+     */
+    public void positionRequested(GridPos2i gridPos, float priority) {
 
         if (!pooledRigidBodies.containsKey(gridPos)) {
 
             pooledRigidBodies.put(gridPos, null);
 
-            CompletableFuture
-                    .supplyAsync(new CollidableGridCell(gridPos, this), executor)
-                    .whenComplete(consumer);
+            CollidableGridCell cell = new CollidableGridCell(gridPos, this, requestCount++);
+            cell.setPriority(priority);
+
+            pendingCells.put(gridPos, cell);
+            executor.submit(cell);
+
+            return;
+        }
+
+        CollidableGridCell cell = pendingCells.get(gridPos);
 
+        if (cell != null && priority < cell.getPriority()) {
+            reprioritize(cell, priority);
         }
+    }
 
+    // the priority of a queued cell can't change in place, so it is taken out and put back.
+    // a cell that is already being built is left alone.
+    private void reprioritize(CollidableGridCell cell, float priority) {
+        if (executor.remove(cell)) {
+            cell.setPriority(priority);
+            executor.submit(cell);
+        }
     }
 
     public abstract RigidBodyControl positionRequestedAsync(GridPos2i gridPos);
 
     @Override
     protected void cleanup(Application app) {
-        executor.shutdownNow();
+        executor.shutdown();
     }
 
     @Override public void update(float tpf) {
 
         pooledRigidBodies.entrySet().removeIf(entry -> {
 
-            if (requiredPositions.size() > 0 && !requiredPositions.contains(entry.getKey())) {
-                this.physicsSpace.remove(entry.getValue());
+            if (requiredPositions.size() > 0 && !requiredPositions.containsKey(entry.getKey())) {
+
+                if (entry.getValue() != null) {
+                    this.physicsSpace.remove(entry.getValue());
+                }
+                else {
+                    // no collider needs the cell anymore, so it isn't built.
+                    dropCell(pendingCells.remove(entry.getKey()));
+                }
+
                 return true;
             }
 
@@ -152,6 +273,16 @@ public abstract class CollisionGrid extends BaseAppState {
 
         });
 
+        // the colliders that want a cell move, so its priority is whatever the most urgent of them gives it now.
+        for (CollidableGridCell cell : pendingCells.values()) {
+
+            Float priority = requiredPositions.get(cell.getGridPos());
+
+            if (priority != null && priority != cell.getPriority()) {
+                reprioritize(cell, priority);
+            }
+        }
+
         this.requiredPositions.clear();
     }
 
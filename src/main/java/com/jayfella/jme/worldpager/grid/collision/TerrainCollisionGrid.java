@@ -7,19 +7,37 @@ import com.jayfella.jme.worldpager.core.NoiseEvaluator;
 import com.jayfella.jme.worldpager.world.World;
 import com.jme3.app.Application;
 import com.jme3.bullet.PhysicsSpace;
+import com.jme3.bullet.collision.shapes.HeightfieldCollisionShape;
 import com.jme3.bullet.collision.shapes.MeshCollisionShape;
 import com.jme3.bullet.control.RigidBodyControl;
-import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
-import com.jme3.scene.Mesh;
 
 public class TerrainCollisionGrid extends CollisionGrid {
 
+    private boolean heightfieldShapes;
 
     public TerrainCollisionGrid(World world, PhysicsSpace physicsSpace, CellSize cellSize) {
         super(world, physicsSpace, cellSize);
     }
 
+    public boolean isHeightfieldShapes() {
+        return heightfieldShapes;
+    }
+
+    /**
+     * Sets whether or not cells are given a heightfield shape made straight from the heights instead of a mesh
+     * shape. A heightfield shape skips building a mesh and a bounding volume hierarchy over its triangles, and only
+     * keeps one float per height in native memory.
+     *
+     * Bullet splits each quad of a heightfield across the other diagonal to the rendered mesh, so the two surfaces
+     * can differ slightly inside a quad. The edges of every quad are the same. Only cells built after this call are
+     * affected.
+     * @param heightfieldShapes whether or not to build heightfield shapes.
+     */
+    public void setHeightfieldShapes(boolean heightfieldShapes) {
+        this.heightfieldShapes = heightfieldShapes;
+    }
+
     @Override
     protected void initialize(Application app) {
 
@@ -38,29 +56,53 @@ public class TerrainCollisionGrid extends CollisionGrid {
     @Override
     public RigidBodyControl positionRequestedAsync(GridPos2i gridPos) {
 
-        int hmapWidth = getCellSize().getSize() + 3;
-        int hmapDepth = getCellSize().getSize() + 3;
-
-        Vector3f worldPos = gridPos.toWorldTranslation();
+        float[] heightmap = getWorld().getHeightfieldCache().getHeightMap(gridPos, getCellSize());
 
-        float[] heightmap = new float[hmapWidth * hmapDepth];
-
-        for (int x = 0; x < hmapWidth; x++) {
-            for (int z = 0; z < hmapDepth; z++) {
-                heightmap[(z * hmapDepth) + x] = getWorld().getWorldNoise().evaluate(new Vector2f(
-                        ((worldPos.x + x) - 1),
-                        ((worldPos.z + z) - 1)
-                ));
-            }
+        if (heightfieldShapes) {
+            return new RigidBodyControl(createHeightfieldShape(heightmap), 0);
         }
 
-        Mesh heightMapMesh = new HeightMapMesh( heightmap );
+        HeightMapMesh heightMapMesh = new HeightMapMesh( heightmap, getWorld().getIntraCellExecutor() );
         RigidBodyControl rigidBodyControl = new RigidBodyControl(new MeshCollisionShape(heightMapMesh, true), 0);
+
+        // the collision shape has its own copy of the mesh.
+        heightMapMesh.release();
         //rigidBodyControl.setFriction(0);
 
         return rigidBodyControl;
 
     }
 
+    private HeightfieldCollisionShape createHeightfieldShape(float[] heightmap) {
+
+        // the heightmap has a one sample border that isn't part of the cell.
+        int hmapDim = (int) Math.sqrt(heightmap.length);
+        int heightsDim = hmapDim - 2;
+
+        float[] heights = new float[heightsDim * heightsDim];
+
+        for (int z = 0; z < heightsDim; z++) {
+            System.arraycopy(heightmap, (z + 1) * hmapDim + 1, heights, z * heightsDim, heightsDim);
+        }
+
+        return new HeightfieldCollisionShape(heights, new Vector3f(1, 1, 1));
+    }
+
+    /**
+     * Moves heightfield shapes to the center of their cell. A heightfield is centered on its origin across the x
+     * and z axes, and its height range is centered on zero, so the heights need no offset.
+     */
+    @Override
+    protected Vector3f getCellLocation(GridPos2i gridPos, RigidBodyControl rigidBodyControl) {
+
+        Vector3f location = super.getCellLocation(gridPos, rigidBodyControl);
+
+        if (rigidBodyControl.getCollisionShape() instanceof HeightfieldCollisionShape) {
+            float halfSize = getCellSize().getSize() * 0.5f;
+            location.addLocal(halfSize, 0, halfSize);
+        }
+
+        return location;
+    }
 
 }
@@ -1,6 +1,8 @@
 package com.jayfella.jme.worldpager.world;
 
+import com.jayfella.jme.worldpager.core.IntraCellExecutor;
 import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+import com.jayfella.jme.worldpager.core.NoiseFactory;
 import com.jayfella.jme.worldpager.grid.SceneGrid;
 import com.jayfella.jme.worldpager.grid.collision.CollisionGrid;
 import com.jme3.app.Application;
@@ -11,6 +13,7 @@ import com.jme3.math.Vector3f;
 import com.jme3.scene.Node;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,16 +27,29 @@ public abstract class AbstractWorldState extends BaseAppState implements World {
     private final WorldSettings worldSettings;
 
     private final ExecutorService threadPoolExecutor;
+    private final IntraCellExecutor intraCellExecutor;
+    private final HeightfieldCache heightfieldCache;
 
     // We use a global world noise so we can extract heights whenever we need them in the various "layers" or the world.
     private NoiseEvaluator worldNoise;
 
+    // if set, each thread creates its own world noise instead of sharing one.
+    private volatile NoiseFactory worldNoiseFactory;
+    private volatile ThreadLocal<NoiseEvaluator> threadNoise;
+
     private List<SceneGrid> sceneGrids = new ArrayList<>();
     private List<CollisionGrid> collisionGrids = new ArrayList<>();
-    private final Vector3f follower = new Vector3f();
+
+    // the grids load every cell that is in view of any follower.
+    private final Follower primaryFollower = new Follower();
+    private final List<Follower> followers = new ArrayList<>();
 
     private final Node worldNode;
 
+    private final FrameBudgetArbiter frameBudgetArbiter = new FrameBudgetArbiter();
+    // whether the grids were last given a share of the frame budget, so they can be put back on their own counts.
+    private boolean frameBudgetApplied;
+
     private final Map<String, Material> registeredMaterials = new HashMap<>();
 
     // public AbstractWorldState(String worldName, int seed, int nThreads) {
@@ -43,6 +59,10 @@ public abstract class AbstractWorldState extends BaseAppState implements World {
 
         this.worldNode = new Node("World: " + worldSettings.getWorldName());
         this.threadPoolExecutor = Executors.newFixedThreadPool(worldSettings.getNumThreads());
+        this.intraCellExecutor = new IntraCellExecutor(threadPoolExecutor);
+        this.heightfieldCache = new HeightfieldCache(this, worldSettings.getHeightfieldCacheMemory());
+
+        this.followers.add(primaryFollower);
     }
 
     @Override
@@ -52,12 +72,38 @@ public abstract class AbstractWorldState extends BaseAppState implements World {
 
     @Override
     public NoiseEvaluator getWorldNoise() {
-        return worldNoise;
+
+        ThreadLocal<NoiseEvaluator> threadNoise = this.threadNoise;
+        return threadNoise != null ? threadNoise.get() : worldNoise;
     }
 
     @Override
     public void setWorldNoise(NoiseEvaluator noiseEvaluator) {
         this.worldNoise = noiseEvaluator;
+        this.worldNoiseFactory = null;
+        this.threadNoise = null;
+
+        // anything we sampled before is no longer valid.
+        heightfieldCache.clear();
+    }
+
+    @Override
+    public NoiseFactory getWorldNoiseFactory() {
+        return worldNoiseFactory;
+    }
+
+    @Override
+    public void setWorldNoiseFactory(NoiseFactory noiseFactory) {
+
+        long seed = worldSettings.getSeed();
+
+        // replacing the thread local discards the evaluators every thread created from the old factory.
+        this.worldNoiseFactory = noiseFactory;
+        this.threadNoise = ThreadLocal.withInitial(() -> noiseFactory.createNoise(seed));
+        this.worldNoise = null;
+
+        // anything we sampled before is no longer valid.
+        heightfieldCache.clear();
     }
 
     @Override
@@ -65,14 +111,63 @@ public abstract class AbstractWorldState extends BaseAppState implements World {
         return threadPoolExecutor;
     }
 
+    @Override
+    public IntraCellExecutor getIntraCellExecutor() {
+        return intraCellExecutor;
+    }
+
+    @Override
+    public HeightfieldCache getHeightfieldCache() {
+        return heightfieldCache;
+    }
+
     @Override
     public Vector3f getFollower() {
-        return follower;
+        return primaryFollower.getLocation();
     }
 
     @Override
     public void setFollower(Vector3f follower) {
-        this.follower.set(follower);
+        primaryFollower.setLocation(follower);
+    }
+
+    @Override
+    public Vector3f getFollowerDirection() {
+        return primaryFollower.getDirection();
+    }
+
+    @Override
+    public void setFollowerDirection(Vector3f direction) {
+        primaryFollower.setDirection(direction);
+    }
+
+    @Override
+    public Vector3f getFollowerVelocity() {
+        return primaryFollower.getVelocity();
+    }
+
+    @Override
+    public Follower getPrimaryFollower() {
+        return primaryFollower;
+    }
+
+    @Override
+    public List<Follower> getFollowers() {
+        return Collections.unmodifiableList(followers);
+    }
+
+    @Override
+    public void addFollower(Follower follower) {
+        if (!followers.contains(follower)) {
+            followers.add(follower);
+        }
+    }
+
+    @Override
+    public void removeFollower(Follower follower) {
+        if (follower != primaryFollower) {
+            followers.remove(follower);
+        }
     }
 
     /*
@@ -148,7 +243,19 @@ public abstract class AbstractWorldState extends BaseAppState implements World {
 
     @Override
     public void update(float tpf) {
-        sceneGrids.forEach(child -> child.setLocation(follower));
+
+        if (worldSettings.getFrameBudget() > 0) {
+            frameBudgetArbiter.distribute(sceneGrids, worldSettings.getFrameBudget());
+            frameBudgetApplied = true;
+        }
+        else if (frameBudgetApplied) {
+            sceneGrids.forEach(sceneGrid -> sceneGrid.setFrameAllowance(0));
+            frameBudgetApplied = false;
+        }
+
+        followers.forEach(follower -> follower.update(tpf));
+
+        sceneGrids.forEach(child -> child.setFollowers(followers));
         collisionGrids.forEach(child -> child.update(tpf));
     }
 
@@ -0,0 +1,81 @@
+package com.jayfella.jme.worldpager.world;
+
+import com.jme3.math.Vector3f;
+
+/**
+ * Something the world loads cells around, such as the camera or a player.
+ * A world may have many followers. Cells are loaded if they are in view of any follower.
+ */
+public class Follower {
+
+    private final Vector3f location = new Vector3f();
+    private final Vector3f direction = new Vector3f();
+    private final Vector3f velocity = new Vector3f();
+
+    // the velocity is measured from how far the follower moves each frame.
+    private final Vector3f lastLocation = new Vector3f();
+    private final Vector3f frameVelocity = new Vector3f();
+    private boolean measured = false;
+
+    public Follower() {
+    }
+
+    public Follower(Vector3f location) {
+        this.location.set(location);
+    }
+
+    public Vector3f getLocation() {
+        return location;
+    }
+
+    public void setLocation(Vector3f location) {
+        this.location.set(location);
+    }
+
+    /**
+     * Gets the direction the follower is looking. Cells in this direction are loaded first.
+     * @return the direction the follower is looking.
+     */
+    public Vector3f getDirection() {
+        return direction;
+    }
+
+    public void setDirection(Vector3f direction) {
+        this.direction.set(direction);
+    }
+
+    /**
+     * Gets the velocity of the follower in world units per second.
+     * @return the velocity of the follower.
+     */
+    public Vector3f getVelocity() {
+        return velocity;
+    }
+
+    /**
+     * Sets the velocity of the follower. If the follower belongs to a world, the velocity is measured every frame
+     * and this value will be overwritten.
+     * @param velocity the velocity of the follower in world units per second.
+     */
+    public void setVelocity(Vector3f velocity) {
+        this.velocity.set(velocity);
+    }
+
+    /**
+     * Measures the velocity of the follower from how far it moved since the last update.
+     * @param tpf the time since the last update in seconds.
+     */
+    public void update(float tpf) {
+
+        if (measured && tpf > 0) {
+            frameVelocity.set(location).subtractLocal(lastLocation).divideLocal(tpf);
+
+            // smooth it out so a single long frame doesn't throw the grids around.
+            velocity.interpolateLocal(frameVelocity, 0.1f);
+        }
+
+        lastLocation.set(location);
+        measured = true;
+    }
+
+}
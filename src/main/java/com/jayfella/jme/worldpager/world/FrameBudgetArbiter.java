@@ -0,0 +1,36 @@
+package com.jayfella.jme.worldpager.world;
+
+import com.jayfella.jme.worldpager.grid.SceneGrid;
+
+import java.util.List;
+
+/**
+ * Shares a per-frame time budget between scene grids.
+ * Grids with more outstanding work receive a larger share, but every grid receives something so a grid that has
+ * just finished building a cell can always apply it.
+ */
+public class FrameBudgetArbiter {
+
+    /**
+     * Sets the frame allowance of each grid for the coming frame.
+     * @param sceneGrids the grids to share the budget between.
+     * @param budget     the total budget in milliseconds.
+     */
+    public void distribute(List<SceneGrid> sceneGrids, float budget) {
+
+        long totalWeight = 0;
+
+        for (SceneGrid sceneGrid : sceneGrids) {
+            totalWeight += getWeight(sceneGrid);
+        }
+
+        for (SceneGrid sceneGrid : sceneGrids) {
+            sceneGrid.setFrameAllowance(budget * getWeight(sceneGrid) / totalWeight);
+        }
+    }
+
+    private int getWeight(SceneGrid sceneGrid) {
+        return 1 + sceneGrid.getPendingWork();
+    }
+
+}
@@ -0,0 +1,405 @@
+package com.jayfella.jme.worldpager.world;
+
+import com.jayfella.jme.worldpager.core.CellSize;
+import com.jayfella.jme.worldpager.core.GridPos2i;
+import com.jayfella.jme.worldpager.core.IntraCellExecutor;
+import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * A thread-safe cache of sampled heightmaps shared by every grid in a world.
+ *
+ * Each heightmap is (size + 3) * (size + 3) samples of the world noise, which includes a one sample border around
+ * the cell. Requesting a heightmap that is already being sampled by another thread waits for that thread instead of
+ * sampling it again, so each tile is only ever computed once while it remains in the cache. Any border a tile shares
+ * with a neighbouring tile that has already been sampled is copied from the neighbour instead of being evaluated.
+ *
+ * Returned heightmaps are shared and must not be modified.
+ */
+public class HeightfieldCache {
+
+    private final Supplier<NoiseEvaluator> noise;
+
+    // splits the sampling of large tiles between cores when few cells are being built.
+    private final IntraCellExecutor rowExecutor;
+
+    // one map per cell size, keyed by the packed grid position. The maps are read and written by many threads at once,
+    // which the primitive keyed maps don't allow.
+    private final List<ConcurrentHashMap<Long, CompletableFuture<float[]>>> tiles = new ArrayList<>();
+
+    // the order tiles were added, so the oldest can be evicted first. Guarded by the lock, along with the bytes,
+    // so a tile sampled while the cache is cleared is never counted.
+    private final Object lock = new Object();
+    private final Queue<TileKey> insertionOrder = new ArrayDeque<>();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // samples copied from the shared borders of neighbouring tiles instead of being evaluated.
+    private final AtomicLong samplesEvaluated = new AtomicLong();
+    private final AtomicLong samplesSaved = new AtomicLong();
+
+    private volatile long maxBytes;
+
+    public HeightfieldCache(World world, long maxBytes) {
+        this(world::getWorldNoise, maxBytes, world.getIntraCellExecutor());
+    }
+
+    /**
+     * Creates a heightfield cache that is not attached to a world, such as on a headless server.
+     * @param noise    supplies the noise of the calling thread. The noise may change, but the cache must then be cleared.
+     * @param maxBytes the amount of memory in bytes the cache may use.
+     */
+    public HeightfieldCache(Supplier<NoiseEvaluator> noise, long maxBytes) {
+        this(noise, maxBytes, null);
+    }
+
+    /**
+     * Creates a heightfield cache that is not attached to a world, such as on a headless server.
+     * @param noise       supplies the noise of the calling thread. The noise may change, but the cache must then be cleared.
+     * @param maxBytes    the amount of memory in bytes the cache may use.
+     * @param rowExecutor splits the sampling of each tile into blocks of rows, or null to sample on one thread.
+     */
+    public HeightfieldCache(Supplier<NoiseEvaluator> noise, long maxBytes, IntraCellExecutor rowExecutor) {
+        this.noise = noise;
+        this.rowExecutor = rowExecutor;
+        this.maxBytes = maxBytes;
+
+        for (int i = 0; i < CellSize.values().length; i++) {
+            tiles.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Gets the heightmap of the given cell, sampling it if it isn't cached.
+     * @param gridPos  the grid position of the cell.
+     * @param cellSize the size of the cell.
+     * @return the shared heightmap of the cell. It must not be modified.
+     */
+    public float[] getHeightMap(GridPos2i gridPos, CellSize cellSize) {
+
+        ConcurrentHashMap<Long, CompletableFuture<float[]>> sizeTiles = tiles.get(cellSize.ordinal());
+        Long key = gridPos.toKey();
+
+        CompletableFuture<float[]> tile = sizeTiles.get(key);
+
+        if (tile == null) {
+
+            CompletableFuture<float[]> created = new CompletableFuture<>();
+            tile = sizeTiles.putIfAbsent(key, created);
+
+            // nobody else is sampling this tile, so it's up to us.
+            if (tile == null) {
+                misses.incrementAndGet();
+                return sample(sizeTiles, key, created, gridPos, cellSize);
+            }
+        }
+
+        hits.incrementAndGet();
+
+        try {
+            return tile.join();
+        } catch (CompletionException ex) {
+            throw new RuntimeException("Error sampling heightmap " + gridPos, ex.getCause());
+        }
+    }
+
+    private float[] sample(ConcurrentHashMap<Long, CompletableFuture<float[]>> sizeTiles, Long key,
+                           CompletableFuture<float[]> tile, GridPos2i gridPos, CellSize cellSize) {
+
+        float[] heightmap;
+
+        try {
+            heightmap = extractHeightMap(sizeTiles, gridPos, cellSize);
+        } catch (RuntimeException ex) {
+            // let anybody waiting know, and let the next request try again.
+            sizeTiles.remove(key, tile);
+            tile.completeExceptionally(ex);
+            throw ex;
+        }
+
+        tile.complete(heightmap);
+
+        synchronized (lock) {
+
+            // the cache was cleared while the tile was being sampled, so it isn't in the cache anymore.
+            if (sizeTiles.get(key) != tile) {
+                return heightmap;
+            }
+
+            insertionOrder.offer(new TileKey(cellSize, key, tile));
+            bytes.addAndGet(heightmap.length * 4L);
+            evict();
+        }
+
+        return heightmap;
+    }
+
+    private float[] extractHeightMap(ConcurrentHashMap<Long, CompletableFuture<float[]>> sizeTiles,
+                                     GridPos2i gridPos, CellSize cellSize) {
+
+        int hmapDim = cellSize.getSize() + 3;
+
+        // the distance between neighbouring tiles in samples, and how many rows and columns they share with us.
+        int spacing = 1 << cellSize.getBitshift();
+        int overlap = hmapDim - spacing;
+
+        float originX = (gridPos.getX() << cellSize.getBitshift()) - 1;
+        float originZ = (gridPos.getZ() << cellSize.getBitshift()) - 1;
+
+        float[] heightmap = new float[hmapDim * hmapDim];
+        NoiseEvaluator noise = this.noise.get();
+
+        // if the borders would overlap each other there is nothing sensible to exchange, so sample everything.
+        if (overlap <= 0 || overlap * 2 >= hmapDim) {
+            evaluateRows(heightmap, hmapDim, originX, originZ, 0, hmapDim, 0, hmapDim);
+            samplesEvaluated.addAndGet(heightmap.length);
+            return heightmap;
+        }
+
+        // the tile is split into 3 * 3 regions: the borders shared with each neighbour, and the middle.
+        // the middle is sampled first, which gives any neighbours that are being built a chance to finish.
+        int inner = hmapDim - overlap;
+        evaluateRows(heightmap, hmapDim, originX, originZ, overlap, inner, overlap, inner);
+
+        boolean[] filled = new boolean[9];
+        filled[4] = true;
+
+        // the neighbours on each side share a whole border, including the corners.
+        for (int side = 0; side < 4; side++) {
+
+            int dx = side == 0 ? -1 : side == 1 ? 1 : 0;
+            int dz = side == 2 ? -1 : side == 3 ? 1 : 0;
+
+            float[] neighbour = getCompletedTile(sizeTiles, gridPos.getX() + dx, gridPos.getZ() + dz);
+
+            if (neighbour != null) {
+                for (int rz = 0; rz < 3; rz++) {
+                    for (int rx = 0; rx < 3; rx++) {
+                        if (!filled[rz * 3 + rx] && (dx == 0 || rx == dx + 1) && (dz == 0 || rz == dz + 1)) {
+                            copyRegion(neighbour, heightmap, hmapDim, spacing, dx, dz, rx, rz, overlap, inner);
+                            filled[rz * 3 + rx] = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        // the diagonal neighbours only share a corner.
+        for (int rz = 0; rz < 3; rz += 2) {
+            for (int rx = 0; rx < 3; rx += 2) {
+
+                if (filled[rz * 3 + rx]) {
+                    continue;
+                }
+
+                float[] neighbour = getCompletedTile(sizeTiles, gridPos.getX() + rx - 1, gridPos.getZ() + rz - 1);
+
+                if (neighbour != null) {
+                    copyRegion(neighbour, heightmap, hmapDim, spacing, rx - 1, rz - 1, rx, rz, overlap, inner);
+                    filled[rz * 3 + rx] = true;
+                }
+            }
+        }
+
+        // whatever is left over has to be sampled.
+        long evaluated = (long) (inner - overlap) * (inner - overlap);
+
+        for (int rz = 0; rz < 3; rz++) {
+            for (int rx = 0; rx < 3; rx++) {
+
+                if (filled[rz * 3 + rx]) {
+                    continue;
+                }
+
+                int fromX = regionStart(rx, overlap, inner), toX = regionEnd(rx, overlap, inner, hmapDim);
+                int fromZ = regionStart(rz, overlap, inner), toZ = regionEnd(rz, overlap, inner, hmapDim);
+
+                evaluateRegion(noise, heightmap, hmapDim, originX, originZ, fromX, toX, fromZ, toZ);
+                evaluated += (long) (toX - fromX) * (toZ - fromZ);
+            }
+        }
+
+        samplesEvaluated.addAndGet(evaluated);
+        samplesSaved.addAndGet(heightmap.length - evaluated);
+
+        return heightmap;
+    }
+
+    private static int regionStart(int region, int overlap, int inner) {
+        return region == 0 ? 0 : region == 1 ? overlap : inner;
+    }
+
+    private static int regionEnd(int region, int overlap, int inner, int hmapDim) {
+        return region == 0 ? overlap : region == 1 ? inner : hmapDim;
+    }
+
+    private static float[] getCompletedTile(ConcurrentHashMap<Long, CompletableFuture<float[]>> sizeTiles, int x, int z) {
+
+        CompletableFuture<float[]> tile = sizeTiles.get(GridPos2i.toKey(x, z));
+
+        // never wait for a neighbour. It may be waiting for us.
+        if (tile == null || !tile.isDone() || tile.isCompletedExceptionally()) {
+            return null;
+        }
+
+        return tile.getNow(null);
+    }
+
+    /**
+     * Copies one of the 3 * 3 regions of a tile from a neighbouring tile that shares it.
+     */
+    private static void copyRegion(float[] neighbour, float[] heightmap, int hmapDim, int spacing,
+                                   int dx, int dz, int rx, int rz, int overlap, int inner) {
+
+        int fromX = regionStart(rx, overlap, inner), toX = regionEnd(rx, overlap, inner, hmapDim);
+        int fromZ = regionStart(rz, overlap, inner), toZ = regionEnd(rz, overlap, inner, hmapDim);
+
+        // sample (x, z) of this tile is sample (x - dx * spacing, z - dz * spacing) of the neighbour.
+        int offsetX = dx * spacing;
+        int offsetZ = dz * spacing;
+
+        for (int z = fromZ; z < toZ; z++) {
+            System.arraycopy(neighbour, (z - offsetZ) * hmapDim + fromX - offsetX, heightmap, z * hmapDim + fromX, toX - fromX);
+        }
+    }
+
+    /**
+     * Samples a region of the heightmap, splitting it into blocks of rows if the row executor allows it.
+     */
+    private void evaluateRows(float[] heightmap, int hmapDim, float originX, float originZ,
+                              int fromX, int toX, int fromZ, int toZ) {
+
+        // the blocks may run on other threads, so each block gets the noise of the thread it runs on.
+        IntraCellExecutor.forEachRowBlock(rowExecutor, toZ - fromZ, (from, to) ->
+                evaluateRegion(noise.get(), heightmap, hmapDim, originX, originZ, fromX, toX, fromZ + from, fromZ + to));
+    }
+
+    private static void evaluateRegion(NoiseEvaluator noise, float[] heightmap, int hmapDim, float originX, float originZ,
+                                       int fromX, int toX, int fromZ, int toZ) {
+
+        int width = toX - fromX;
+        int depth = toZ - fromZ;
+
+        if (width == hmapDim && depth == hmapDim) {
+            noise.evaluate(heightmap, originX, originZ, 1, width, depth);
+            return;
+        }
+
+        float[] region = new float[width * depth];
+        noise.evaluate(region, originX + fromX, originZ + fromZ, 1, width, depth);
+
+        for (int z = 0; z < depth; z++) {
+            System.arraycopy(region, z * width, heightmap, (fromZ + z) * hmapDim + fromX, width);
+        }
+    }
+
+    // must be called while holding the lock.
+    private void evict() {
+
+        while (bytes.get() > maxBytes) {
+
+            TileKey eldest = insertionOrder.poll();
+
+            if (eldest == null) {
+                return;
+            }
+
+            // only the tile that was counted. The position may have been sampled again since.
+            if (tiles.get(eldest.cellSize.ordinal()).remove(eldest.key, eldest.tile)) {
+                int dim = eldest.cellSize.getSize() + 3;
+                bytes.addAndGet(-(dim * dim * 4L));
+            }
+        }
+    }
+
+    /**
+     * Removes every cached heightmap. Heightmaps that are being sampled will still be returned to whoever requested
+     * them. This must be called if the world noise changes.
+     */
+    public void clear() {
+
+        synchronized (lock) {
+
+            for (ConcurrentHashMap<Long, CompletableFuture<float[]>> sizeTiles : tiles) {
+                sizeTiles.clear();
+            }
+
+            insertionOrder.clear();
+            bytes.set(0);
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+
+        synchronized (lock) {
+            evict();
+        }
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Gets the amount of requests that were served from the cache, or waited for another thread to sample the tile.
+     * @return the amount of cache hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the amount of requests that had to sample the tile.
+     * @return the amount of cache misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the amount of noise samples that were evaluated.
+     * @return the amount of samples evaluated.
+     */
+    public long getSamplesEvaluated() {
+        return samplesEvaluated.get();
+    }
+
+    /**
+     * Gets the amount of noise samples that were copied from a neighbouring tile instead of being evaluated.
+     * Neighbouring tiles share a border of three rows or columns, and three by three samples at each corner.
+     * @return the amount of samples saved.
+     */
+    public long getSamplesSaved() {
+        return samplesSaved.get();
+    }
+
+    private static final class TileKey {
+
+        private final CellSize cellSize;
+        private final Long key;
+        private final CompletableFuture<float[]> tile;
+
+        private TileKey(CellSize cellSize, Long key, CompletableFuture<float[]> tile) {
+            this.cellSize = cellSize;
+            this.key = key;
+            this.tile = tile;
+        }
+    }
+
+}
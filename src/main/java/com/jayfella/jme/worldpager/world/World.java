@@ -1,6 +1,8 @@
 package com.jayfella.jme.worldpager.world;
 
+import com.jayfella.jme.worldpager.core.IntraCellExecutor;
 import com.jayfella.jme.worldpager.core.NoiseEvaluator;
+import com.jayfella.jme.worldpager.core.NoiseFactory;
 import com.jayfella.jme.worldpager.grid.SceneGrid;
 import com.jayfella.jme.worldpager.grid.collision.CollisionGrid;
 import com.jme3.app.Application;
@@ -15,10 +17,37 @@ public interface World {
 
     WorldSettings getWorldSettings();
 
+    /**
+     * Gets the world noise. If the world has a noise factory, each thread gets its own instance.
+     * @return the world noise of the calling thread.
+     */
     NoiseEvaluator getWorldNoise();
+
+    /**
+     * Sets a single world noise that is shared by every thread. The noise must be thread-safe.
+     * @param noiseEvaluator the world noise.
+     */
     void setWorldNoise(NoiseEvaluator noiseEvaluator);
+
+    NoiseFactory getWorldNoiseFactory();
+
+    /**
+     * Sets a factory that creates a world noise for each thread that asks for one, seeded with the seed of the world.
+     * Use this for noise that holds mutable state.
+     * @param noiseFactory the factory that creates the world noise.
+     * @see WorldSettings#getSeed()
+     */
+    void setWorldNoiseFactory(NoiseFactory noiseFactory);
     ExecutorService getThreadPool();
 
+    /**
+     * Gets the executor that splits the building of a single cell between cores when few cells are being built.
+     * @return the intra-cell executor of the world.
+     */
+    IntraCellExecutor getIntraCellExecutor();
+
+    HeightfieldCache getHeightfieldCache();
+
     List<SceneGrid> getSceneGrids();
     SceneGrid getSceneGrid(String name);
     void addSceneGrid(SceneGrid sceneGrid);
@@ -34,4 +63,29 @@ public interface World {
     Vector3f getFollower();
     void setFollower(Vector3f vector3f);
 
+    Vector3f getFollowerDirection();
+    void setFollowerDirection(Vector3f direction);
+
+    Vector3f getFollowerVelocity();
+
+    /**
+     * Gets the follower that is moved by {@link #setFollower(Vector3f)}. It is always registered with the world.
+     * @return the primary follower of the world.
+     */
+    Follower getPrimaryFollower();
+
+    /**
+     * Gets every follower the world loads cells around, including the primary follower.
+     * @return the followers of the world.
+     */
+    List<Follower> getFollowers();
+
+    /**
+     * Registers a follower with the world. Cells in view of any follower are loaded, and are only built once
+     * regardless of how many followers can see them.
+     * @param follower the follower to register.
+     */
+    void addFollower(Follower follower);
+    void removeFollower(Follower follower);
+
 }
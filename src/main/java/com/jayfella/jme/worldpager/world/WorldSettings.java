@@ -5,6 +5,8 @@ public class WorldSettings {
     private String worldName = "";
     private int nThreads = 2;
     private long seed = 0;
+    private float frameBudget = 0;
+    private long heightfieldCacheMemory = 64L * 1024 * 1024;
 
     public WorldSettings() {
     }
@@ -32,4 +34,39 @@ public class WorldSettings {
     public void setSeed(long seed) {
         this.seed = seed;
     }
+
+    /**
+     * Gets the amount of milliseconds all scene grids may spend applying, attaching and destroying cells each frame.
+     * @return the frame budget in milliseconds, or zero if each grid uses its own per-frame cell counts.
+     */
+    public float getFrameBudget() {
+        return frameBudget;
+    }
+
+    /**
+     * Sets the amount of milliseconds all scene grids may spend applying, attaching and destroying cells each frame.
+     * The budget is shared between grids according to how much work each one has waiting.
+     * @param frameBudget the frame budget in milliseconds, or zero to use the per-frame cell counts of each grid.
+     */
+    public void setFrameBudget(float frameBudget) {
+        this.frameBudget = frameBudget;
+    }
+
+    /**
+     * Gets the maximum amount of memory used by the heightmaps the world caches for its grids.
+     * @return the maximum size of the heightfield cache in bytes.
+     */
+    public long getHeightfieldCacheMemory() {
+        return heightfieldCacheMemory;
+    }
+
+    /**
+     * Sets the maximum amount of memory used by the heightmaps the world caches for its grids.
+     * Each heightmap is sampled once and shared by every grid that needs it. When the cache is full the oldest
+     * heightmaps are removed.
+     * @param heightfieldCacheMemory the maximum size of the heightfield cache in bytes.
+     */
+    public void setHeightfieldCacheMemory(long heightfieldCacheMemory) {
+        this.heightfieldCacheMemory = heightfieldCacheMemory;
+    }
 }
@@ -0,0 +1,17 @@
+#import "Common/ShaderLib/GLSLCompat.glsllib"
+#import "Common/ShaderLib/Instancing.glsllib"
+#import "Shaders/Lib/CompactVertex.glsllib"
+
+// Common/MatDefs/Shadow/PreShadow.vert for compact heightmap meshes.
+
+attribute float inPosition;
+attribute vec2 inTexCoord;
+
+varying vec2 texCoord;
+
+void main(){
+    vec4 modelSpacePos = decodeCompactPosition(inPosition, inTexCoord);
+
+    gl_Position = TransformWorldViewProjection(modelSpacePos);
+    texCoord = inTexCoord;
+}
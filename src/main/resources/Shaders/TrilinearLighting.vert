@@ -3,6 +3,7 @@
 
 #import "Common/ShaderLib/Skinning.glsllib"
 #import "Shaders/Lib/VertScattering.glsllib"
+#import "Shaders/Lib/CompactVertex.glsllib"
 
 uniform mat4 g_WorldViewProjectionMatrix;
 uniform mat4 g_WorldViewMatrix;
@@ -40,9 +41,15 @@ varying vec3 AmbientSum;
 varying vec4 DiffuseSum;
 varying vec3 SpecularSum;
 
-attribute vec3 inPosition;
+#ifdef COMPACT_VERTEX
+  // the height in steps and the packed normal. The texture coordinate is the grid location.
+  attribute float inPosition;
+  attribute vec2 inNormal;
+#else
+  attribute vec3 inPosition;
+  attribute vec3 inNormal;
+#endif
 attribute vec2 inTexCoord;
-attribute vec3 inNormal;
 
 varying vec3 lightVec;
 //varying vec4 spotVec;
@@ -79,19 +86,17 @@ varying vec3 lightVec;
 
     /**
      * Input:
-     * attribute inPosition
-     * attribute inNormal
      * uniform g_WorldMatrix
      * uniform g_CameraPosition
      *
      * Output:
      * varying refVec
      */
-    void computeRef(in vec4 modelSpacePos){
+    void computeRef(in vec4 modelSpacePos, in vec3 modelSpaceNorm){
         vec3 worldPos = (g_WorldMatrix * modelSpacePos).xyz;
 
         vec3 I = normalize( g_CameraPosition - worldPos  ).xyz;
-        vec3 N = normalize( (g_WorldMatrix * vec4(inNormal, 0.0)).xyz );
+        vec3 N = normalize( (g_WorldMatrix * vec4(modelSpaceNorm, 0.0)).xyz );
 
         refVec.xyz = reflect(I, N);
         refVec.w   = m_FresnelParams.x + m_FresnelParams.y * pow(1.0 + dot(I, N), m_FresnelParams.z);
@@ -150,8 +155,13 @@ vec2 computeLighting(in vec3 wvPos, in vec3 wvNorm, in vec3 wvViewDir, in vec4 w
 #endif
 
 void main(){
-   vec4 modelSpacePos = vec4(inPosition, 1.0);
-   vec3 modelSpaceNorm = inNormal;
+   #ifdef COMPACT_VERTEX
+        vec4 modelSpacePos = decodeCompactPosition(inPosition, inTexCoord);
+        vec3 modelSpaceNorm = decodeCompactNormal(inNormal);
+   #else
+        vec4 modelSpacePos = vec4(inPosition, 1.0);
+        vec3 modelSpaceNorm = inNormal;
+   #endif
 
    #ifndef VERTEX_LIGHTING
         vec3 modelSpaceTan  = inTangent.xyz;
@@ -305,6 +315,6 @@ void main(){
     #endif
 
     #ifdef USE_REFLECTION
-        computeRef(modelSpacePos);
+        computeRef(modelSpacePos, modelSpaceNorm);
     #endif
 }
@@ -0,0 +1,162 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
+import com.jme3.scene.VertexBuffer;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HeightMapMeshTest {
+
+    private static final int SIZE = 32;
+    private static final int HMAP_DIM = SIZE + 3;
+    private static final int MESH_DIM = SIZE + 1;
+
+    private static float[] createHeightMap(float phase) {
+
+        float[] heightmap = new float[HMAP_DIM * HMAP_DIM];
+
+        for (int z = 0; z < HMAP_DIM; z++) {
+            for (int x = 0; x < HMAP_DIM; x++) {
+                heightmap[z * HMAP_DIM + x] = 8 * FastMath.sin(x * 0.15f + phase) * FastMath.cos(z * 0.1f - phase);
+            }
+        }
+
+        return heightmap;
+    }
+
+    /**
+     * The normals of the original builder: the sum of the face normals around each vertex, triangulated over the
+     * whole heightmap including its border.
+     */
+    private static Vector3f[] createFaceNormals(float[] heightmap) {
+
+        Vector3f[] verts = new Vector3f[HMAP_DIM * HMAP_DIM];
+        Vector3f[] normals = new Vector3f[verts.length];
+
+        for (int z = 0; z < HMAP_DIM; z++) {
+            for (int x = 0; x < HMAP_DIM; x++) {
+                verts[z * HMAP_DIM + x] = new Vector3f(x, heightmap[z * HMAP_DIM + x], z);
+                normals[z * HMAP_DIM + x] = new Vector3f();
+            }
+        }
+
+        for (int x = 1; x < HMAP_DIM; x++) {
+            for (int z = 1; z < HMAP_DIM; z++) {
+                addFace(verts, normals, HMAP_DIM * (x - 1) + z - 1, HMAP_DIM * x + z - 1, HMAP_DIM * x + z);
+                addFace(verts, normals, HMAP_DIM * x + z, HMAP_DIM * (x - 1) + z, HMAP_DIM * (x - 1) + z - 1);
+            }
+        }
+
+        for (Vector3f normal : normals) {
+            normal.normalizeLocal();
+        }
+
+        return normals;
+    }
+
+    private static void addFace(Vector3f[] verts, Vector3f[] normals, int a, int b, int c) {
+
+        Vector3f normal = verts[b].subtract(verts[a]).cross(verts[c].subtract(verts[a]));
+
+        normals[a].addLocal(normal);
+        normals[b].addLocal(normal);
+        normals[c].addLocal(normal);
+    }
+
+    private static void assertMatchesHeightMap(HeightMapMesh mesh, float[] heightmap) {
+
+        FloatBuffer positions = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData();
+        FloatBuffer normals = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Normal).getData();
+        FloatBuffer texCoords = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.TexCoord).getData();
+
+        assertEquals(MESH_DIM * MESH_DIM * 3, positions.limit());
+        assertEquals(MESH_DIM * MESH_DIM * 3, normals.limit());
+        assertEquals(MESH_DIM * MESH_DIM * 2, texCoords.limit());
+
+        Vector3f[] faceNormals = createFaceNormals(heightmap);
+        Vector3f normal = new Vector3f();
+
+        for (int z = 0; z < MESH_DIM; z++) {
+            for (int x = 0; x < MESH_DIM; x++) {
+
+                int vert = z * MESH_DIM + x;
+
+                assertEquals(x, positions.get(vert * 3), 0);
+                assertEquals(heightmap[(z + 1) * HMAP_DIM + x + 1], positions.get(vert * 3 + 1), 0);
+                assertEquals(z, positions.get(vert * 3 + 2), 0);
+
+                assertEquals(x, texCoords.get(vert * 2), 0);
+                assertEquals(z, texCoords.get(vert * 2 + 1), 0);
+
+                normal.set(normals.get(vert * 3), normals.get(vert * 3 + 1), normals.get(vert * 3 + 2));
+
+                // central differences and summed face normals agree closely on smooth terrain.
+                float angle = normal.angleBetween(faceNormals[(z + 1) * HMAP_DIM + x + 1]);
+                assertTrue("normal " + x + ", " + z + " is " + angle + " radians out", angle < FastMath.DEG_TO_RAD);
+            }
+        }
+    }
+
+    private static List<VertexBuffer.Type> vertexTypes() {
+        return Arrays.asList(VertexBuffer.Type.Position, VertexBuffer.Type.Normal, VertexBuffer.Type.TexCoord);
+    }
+
+    @Test
+    public void meshMatchesTheHeightMap() {
+
+        float[] heightmap = createHeightMap(0);
+        HeightMapMesh mesh = new HeightMapMesh(heightmap);
+
+        assertMatchesHeightMap(mesh, heightmap);
+        assertEquals(SIZE * SIZE * 2, mesh.getTriangleCount());
+    }
+
+    @Test
+    public void releasedBuffersAreReusedByTheNextMesh() {
+
+        HeightMapMesh first = new HeightMapMesh(createHeightMap(0));
+
+        List<Object> released = new ArrayList<>();
+
+        for (VertexBuffer.Type type : vertexTypes()) {
+            released.add(first.getBuffer(type).getData());
+        }
+
+        VertexBuffer index = first.getBuffer(VertexBuffer.Type.Index);
+
+        first.release();
+
+        for (VertexBuffer.Type type : vertexTypes()) {
+            assertNull(first.getBuffer(type).getData());
+        }
+
+        // the index buffer is shared by every mesh of the size, so it is never released.
+        assertNotNull(index.getData());
+
+        // a different heightmap, so anything left over from the first mesh would show.
+        float[] heightmap = createHeightMap(1.3f);
+        HeightMapMesh second = new HeightMapMesh(heightmap);
+
+        for (VertexBuffer.Type type : vertexTypes()) {
+            Object data = second.getBuffer(type).getData();
+            assertTrue(type + " buffer was not reused", released.stream().anyMatch(buffer -> buffer == data));
+        }
+
+        assertMatchesHeightMap(second, heightmap);
+        assertSame(index, second.getBuffer(VertexBuffer.Type.Index));
+
+        second.release();
+    }
+
+}
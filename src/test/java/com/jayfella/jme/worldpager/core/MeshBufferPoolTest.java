@@ -0,0 +1,109 @@
+package com.jayfella.jme.worldpager.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MeshBufferPoolTest {
+
+    @Test
+    public void releasedBuffersAreTakenAgainCleared() {
+
+        MeshBufferPool pool = new MeshBufferPool();
+
+        FloatBuffer buffer = pool.takeFloatBuffer(100);
+        assertTrue(buffer.isDirect());
+
+        // leave the buffer the way a reader might, part way through with a smaller limit.
+        buffer.put(1).put(2).put(3);
+        buffer.limit(50);
+
+        pool.release(buffer);
+
+        FloatBuffer reused = pool.takeFloatBuffer(100);
+
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(100, reused.limit());
+    }
+
+    @Test
+    public void buffersAreOnlyTakenAgainAtTheSameCapacity() {
+
+        MeshBufferPool pool = new MeshBufferPool();
+
+        FloatBuffer buffer = pool.takeFloatBuffer(100);
+        pool.release(buffer);
+
+        FloatBuffer other = pool.takeFloatBuffer(99);
+
+        assertNotSame(buffer, other);
+        assertEquals(99, other.capacity());
+        assertSame(buffer, pool.takeFloatBuffer(100));
+    }
+
+    @Test
+    public void aBufferIsOnlyHandedOutOnce() {
+
+        MeshBufferPool pool = new MeshBufferPool();
+
+        FloatBuffer buffer = pool.takeFloatBuffer(16);
+        pool.release(buffer);
+
+        assertSame(buffer, pool.takeFloatBuffer(16));
+        assertNotSame(buffer, pool.takeFloatBuffer(16));
+    }
+
+    @Test
+    public void everyBufferTypeIsPooled() {
+
+        MeshBufferPool pool = new MeshBufferPool();
+
+        IntBuffer ints = pool.takeIntBuffer(32);
+        ShortBuffer shorts = pool.takeShortBuffer(32);
+        ByteBuffer bytes = pool.takeByteBuffer(32);
+
+        ints.position(5);
+        shorts.position(5);
+        bytes.position(5);
+
+        pool.release(ints);
+        pool.release(shorts);
+        pool.release(bytes);
+
+        IntBuffer reusedInts = pool.takeIntBuffer(32);
+        ShortBuffer reusedShorts = pool.takeShortBuffer(32);
+        ByteBuffer reusedBytes = pool.takeByteBuffer(32);
+
+        assertSame(ints, reusedInts);
+        assertSame(shorts, reusedShorts);
+        assertSame(bytes, reusedBytes);
+
+        assertEquals(0, reusedInts.position());
+        assertEquals(0, reusedShorts.position());
+        assertEquals(0, reusedBytes.position());
+    }
+
+    @Test
+    public void heapBuffersAreNotPooled() {
+
+        MeshBufferPool pool = new MeshBufferPool();
+
+        FloatBuffer heap = FloatBuffer.allocate(100);
+        pool.release(heap);
+
+        FloatBuffer taken = pool.takeFloatBuffer(100);
+
+        assertNotSame(heap, taken);
+        assertTrue(taken.isDirect());
+    }
+
+}
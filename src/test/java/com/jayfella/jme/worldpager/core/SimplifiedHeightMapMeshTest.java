@@ -0,0 +1,229 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.math.FastMath;
+import com.jme3.scene.VertexBuffer;
+import com.jme3.scene.mesh.IndexBuffer;
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SimplifiedHeightMapMeshTest {
+
+    private static final int SIZE = 64;
+    private static final int HMAP_DIM = SIZE + 3;
+
+    private static final float[] MAX_ERRORS = { 0.1f, 0.5f, 2, 8 };
+    private static final int[] LOD_LEVELS = { 0, 1, 2 };
+
+    // rolling hills with sharp noise on top, so every part of the cell needs a different amount of triangles.
+    private static float[] createHeightMap(long seed) {
+
+        Random random = new Random(seed);
+        float[] heightmap = new float[HMAP_DIM * HMAP_DIM];
+
+        for (int z = 0; z < HMAP_DIM; z++) {
+            for (int x = 0; x < HMAP_DIM; x++) {
+                heightmap[z * HMAP_DIM + x] = 20 * FastMath.sin(x * 0.07f) * FastMath.cos(z * 0.05f)
+                        + 4 * FastMath.sin(x * 0.4f + z * 0.3f)
+                        + random.nextFloat() * 3;
+            }
+        }
+
+        return heightmap;
+    }
+
+    private static float getHeight(float[] heightmap, int x, int z) {
+        return heightmap[(z + 1) * HMAP_DIM + x + 1];
+    }
+
+    @Test
+    public void meshIsNeverFurtherThanTheErrorFromTheHeightMap() {
+
+        float[] heightmap = createHeightMap(42);
+
+        for (int lodLevel : LOD_LEVELS) {
+            for (float maxError : MAX_ERRORS) {
+
+                SimplifiedHeightMapMesh mesh = new SimplifiedHeightMapMesh(heightmap, maxError, lodLevel, 0);
+
+                FloatBuffer positions = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData();
+                IndexBuffer indices = mesh.getIndexBuffer();
+
+                int stride = 1 << lodLevel;
+                int meshDim = SIZE / stride + 1;
+                boolean[] covered = new boolean[meshDim * meshDim];
+                float area = 0;
+
+                for (int i = 0; i < indices.size(); i += 3) {
+
+                    int a = indices.get(i) * 3;
+                    int b = indices.get(i + 1) * 3;
+                    int c = indices.get(i + 2) * 3;
+
+                    float ax = positions.get(a), ay = positions.get(a + 1), az = positions.get(a + 2);
+                    float bx = positions.get(b), by = positions.get(b + 1), bz = positions.get(b + 2);
+                    float cx = positions.get(c), cy = positions.get(c + 1), cz = positions.get(c + 2);
+
+                    float det = (bz - cz) * (ax - cx) + (cx - bx) * (az - cz);
+                    area += Math.abs(det) / 2;
+
+                    int minX = (int) Math.min(ax, Math.min(bx, cx));
+                    int maxX = (int) Math.max(ax, Math.max(bx, cx));
+                    int minZ = (int) Math.min(az, Math.min(bz, cz));
+                    int maxZ = (int) Math.max(az, Math.max(bz, cz));
+
+                    // every height the triangle covers, at the spacing of the level of detail.
+                    for (int z = minZ; z <= maxZ; z += stride) {
+                        for (int x = minX; x <= maxX; x += stride) {
+
+                            float u = ((bz - cz) * (x - cx) + (cx - bx) * (z - cz)) / det;
+                            float v = ((cz - az) * (x - cx) + (ax - cx) * (z - cz)) / det;
+                            float w = 1 - u - v;
+
+                            if (u < -1e-6f || v < -1e-6f || w < -1e-6f) {
+                                continue;
+                            }
+
+                            float y = u * ay + v * by + w * cy;
+                            float error = Math.abs(y - getHeight(heightmap, x, z));
+
+                            assertTrue("lod " + lodLevel + ", error " + maxError + ": height " + x + ", " + z
+                                    + " is " + error + " from the mesh", error <= maxError + 1e-4f);
+
+                            covered[(z / stride) * meshDim + x / stride] = true;
+                        }
+                    }
+                }
+
+                assertEquals("lod " + lodLevel + ", error " + maxError, SIZE * SIZE, area, 1e-3f);
+
+                for (int i = 0; i < covered.length; i++) {
+                    assertTrue("lod " + lodLevel + ", error " + maxError + ": vertex " + i + " is not covered",
+                            covered[i]);
+                }
+
+                // the noise is rough enough that a tiny error leaves little to simplify, but a large one does.
+                if (maxError >= 2) {
+                    assertTrue(mesh.getTriangleCount() < (meshDim - 1) * (meshDim - 1) * 2);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void meshHasNoCracksInsideTheCell() {
+
+        float[] heightmap = createHeightMap(7);
+
+        for (int lodLevel : LOD_LEVELS) {
+            for (float maxError : MAX_ERRORS) {
+
+                SimplifiedHeightMapMesh mesh = new SimplifiedHeightMapMesh(heightmap, maxError, lodLevel, 0);
+
+                FloatBuffer positions = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData();
+                IndexBuffer indices = mesh.getIndexBuffer();
+
+                int stride = 1 << lodLevel;
+                int meshDim = SIZE / stride + 1;
+                boolean[] used = new boolean[meshDim * meshDim];
+
+                for (int vert = 0; vert < positions.limit() / 3; vert++) {
+                    int col = (int) positions.get(vert * 3) / stride;
+                    int row = (int) positions.get(vert * 3 + 2) / stride;
+                    used[row * meshDim + col] = true;
+                }
+
+                // a vertex part way along the edge of a triangle would open a crack beside it.
+                for (int i = 0; i < indices.size(); i++) {
+
+                    int from = indices.get(i) * 3;
+                    int to = indices.get(i % 3 == 2 ? i - 2 : i + 1) * 3;
+
+                    int fromCol = (int) positions.get(from) / stride;
+                    int fromRow = (int) positions.get(from + 2) / stride;
+                    int toCol = (int) positions.get(to) / stride;
+                    int toRow = (int) positions.get(to + 2) / stride;
+
+                    int steps = Math.max(Math.abs(toCol - fromCol), Math.abs(toRow - fromRow));
+                    int stepCol = Integer.signum(toCol - fromCol);
+                    int stepRow = Integer.signum(toRow - fromRow);
+
+                    for (int step = 1; step < steps; step++) {
+                        int col = fromCol + step * stepCol;
+                        int row = fromRow + step * stepRow;
+
+                        assertFalse("lod " + lodLevel + ", error " + maxError + ": vertex " + col + ", " + row
+                                + " lies on the edge of a triangle", used[row * meshDim + col]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void edgesMatchTheHeightMapMesh() {
+
+        float[] heightmap = createHeightMap(3);
+
+        for (int lodLevel : LOD_LEVELS) {
+
+            HeightMapMesh regular = new HeightMapMesh(heightmap, lodLevel, 0, null);
+
+            FloatBuffer regularPositions = (FloatBuffer) regular.getBuffer(VertexBuffer.Type.Position).getData();
+            FloatBuffer regularNormals = (FloatBuffer) regular.getBuffer(VertexBuffer.Type.Normal).getData();
+            FloatBuffer regularTexCoords = (FloatBuffer) regular.getBuffer(VertexBuffer.Type.TexCoord).getData();
+
+            int stride = 1 << lodLevel;
+            int meshDim = SIZE / stride + 1;
+
+            for (float maxError : MAX_ERRORS) {
+
+                SimplifiedHeightMapMesh mesh = new SimplifiedHeightMapMesh(heightmap, maxError, lodLevel, 0);
+
+                FloatBuffer positions = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Position).getData();
+                FloatBuffer normals = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.Normal).getData();
+                FloatBuffer texCoords = (FloatBuffer) mesh.getBuffer(VertexBuffer.Type.TexCoord).getData();
+
+                Map<Integer, Integer> edgeVertices = new HashMap<>();
+
+                for (int vert = 0; vert < positions.limit() / 3; vert++) {
+
+                    int col = (int) positions.get(vert * 3) / stride;
+                    int row = (int) positions.get(vert * 3 + 2) / stride;
+
+                    if (col == 0 || row == 0 || col == meshDim - 1 || row == meshDim - 1) {
+                        edgeVertices.put(row * meshDim + col, vert);
+                    }
+                }
+
+                // every vertex of the edge is kept, whatever the error.
+                assertEquals("lod " + lodLevel + ", error " + maxError, (meshDim - 1) * 4, edgeVertices.size());
+
+                for (Map.Entry<Integer, Integer> entry : edgeVertices.entrySet()) {
+
+                    int regularVert = entry.getKey();
+                    int vert = entry.getValue();
+
+                    for (int i = 0; i < 3; i++) {
+                        assertEquals(regularPositions.get(regularVert * 3 + i), positions.get(vert * 3 + i), 0);
+                        assertEquals(regularNormals.get(regularVert * 3 + i), normals.get(vert * 3 + i), 0);
+                    }
+
+                    for (int i = 0; i < 2; i++) {
+                        assertEquals(regularTexCoords.get(regularVert * 2 + i), texCoords.get(vert * 2 + i), 0);
+                    }
+                }
+            }
+
+            regular.release();
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.jayfella.jme.worldpager.core;
+
+import com.jme3.math.Vector2f;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpsampledNoiseTest {
+
+    private static final float AMPLITUDE = 100;
+    private static final float WAVELENGTH = 200;
+
+    private static final int SIZE = 67;
+
+    /**
+     * A smooth field with the given amplitude and wavelength, like a continents layer.
+     */
+    private static final class SmoothNoise extends NoiseEvaluator {
+
+        private final double k = 2 * Math.PI / WAVELENGTH;
+        private int evaluations;
+
+        @Override
+        public float evaluate(Vector2f loc) {
+            evaluations++;
+            return (float) (AMPLITUDE * Math.sin(k * loc.x) * Math.cos(k * 0.7 * loc.y + 1));
+        }
+    }
+
+    @Test
+    public void upsampledLayersStayWithinTheInterpolationErrorBound() {
+
+        SmoothNoise layer = new SmoothNoise();
+
+        for (int stride = 2; stride <= 32; stride *= 2) {
+
+            UpsampledNoise noise = new UpsampledNoise();
+            noise.addLayer(layer, stride);
+
+            // Catmull-Rom interpolation is third order. Its error along each axis is below stride^3 * max|f'''| / 16,
+            // and the third derivative of the field is at most amplitude * k^3 along either axis.
+            double h = 2 * Math.PI / WAVELENGTH * stride;
+            float bound = (float) (2 * AMPLITUDE * h * h * h / 16);
+
+            float maxError = 0;
+
+            for (int tile = 0; tile < 20; tile++) {
+
+                float originX = -500 + tile * 64;
+                float originZ = 300 - tile * 37;
+
+                float[] upsampled = new float[SIZE * SIZE];
+                float[] expected = new float[SIZE * SIZE];
+
+                noise.evaluate(upsampled, originX, originZ, 1, SIZE, SIZE);
+                layer.evaluate(expected, originX, originZ, 1, SIZE, SIZE);
+
+                for (int i = 0; i < expected.length; i++) {
+                    maxError = Math.max(maxError, Math.abs(upsampled[i] - expected[i]));
+                }
+            }
+
+            assertTrue("stride " + stride + " error " + maxError + " exceeds " + bound, maxError <= bound);
+        }
+    }
+
+    @Test
+    public void quadraticLayersAreReproducedExactly() {
+
+        NoiseEvaluator quadratic = new NoiseEvaluator() {
+            @Override
+            public float evaluate(Vector2f loc) {
+                return 0.01f * loc.x * loc.x + 0.02f * loc.x * loc.y - 0.03f * loc.y * loc.y + loc.x - 2 * loc.y + 5;
+            }
+        };
+
+        UpsampledNoise noise = new UpsampledNoise();
+        noise.addLayer(quadratic, 8);
+
+        float[] upsampled = new float[SIZE * SIZE];
+        float[] expected = new float[SIZE * SIZE];
+
+        noise.evaluate(upsampled, -37, 21, 1, SIZE, SIZE);
+        quadratic.evaluate(expected, -37, 21, 1, SIZE, SIZE);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], upsampled[i], 0.01f);
+        }
+    }
+
+    @Test
+    public void singlePointsMatchRegionSampling() {
+
+        UpsampledNoise noise = new UpsampledNoise();
+        noise.addLayer(new SmoothNoise(), 16);
+        noise.addLayer(new SmoothNoise(), 1);
+
+        float originX = -70, originZ = 133;
+
+        float[] region = new float[SIZE * SIZE];
+        noise.evaluate(region, originX, originZ, 1, SIZE, SIZE);
+
+        Vector2f loc = new Vector2f();
+
+        for (int z = 0; z < SIZE; z += 3) {
+            for (int x = 0; x < SIZE; x += 3) {
+                float point = noise.evaluate(loc.set(originX + x, originZ + z));
+                assertEquals(region[z * SIZE + x], point, 0.001f);
+            }
+        }
+    }
+
+    @Test
+    public void coarseLayersAreOnlySampledOnTheLattice() {
+
+        for (int stride = 2; stride <= 32; stride *= 2) {
+
+            SmoothNoise layer = new SmoothNoise();
+
+            UpsampledNoise noise = new UpsampledNoise();
+            noise.addLayer(layer, stride);
+
+            noise.evaluate(new float[SIZE * SIZE], 64, -128, 1, SIZE, SIZE);
+
+            // the lattice points covering the region, plus one more on each side for the cubic.
+            int latticeDim = (SIZE - 1) / stride + 4;
+
+            assertTrue("stride " + stride + " took " + layer.evaluations + " samples",
+                    layer.evaluations <= latticeDim * latticeDim);
+        }
+    }
+
+}